@@ -0,0 +1,84 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import imageprocessing.GaussianFilter;
+import imageprocessing.MedianFilter;
+import imageprocessing.Rotation;
+import imageprocessing.Scaling;
+import imageprocessing.colors.Inverter;
+import imageprocessing.grayValueConverter.GrayValue;
+import main.Picsi;
+
+/**
+ * Benchmarks of the image processors supporting RGB images on synthetic RGB images.
+ * <pre>
+ * java -jar target/benchmarks.jar ColorProcessorBenchmark -rf json -rff color.json
+ * </pre>
+ * Parameter threads = 0 uses all available processors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx16g" })
+public class ColorProcessorBenchmark {
+	@Param({ "1", "12", "50" })
+	public String megapixels;
+	
+	@Param({ "1", "4", "0" })
+	public int threads;
+	
+	private ImageData m_rgb;
+	
+	@Setup(Level.Trial)
+	public void setup() {
+		SyntheticImages.setThreads(threads);
+		m_rgb = SyntheticImages.rgb(megapixels);
+	}
+	
+	@Benchmark
+	public ImageData gaussian() {
+		return GaussianFilter.gaussian(2, m_rgb);
+	}
+	
+	@Benchmark
+	public ImageData median() {
+		return MedianFilter.medianFilter(5, m_rgb);
+	}
+	
+	@Benchmark
+	public ImageData scaling() {
+		return Scaling.scale(m_rgb, 1.5f, 1);
+	}
+	
+	@Benchmark
+	public ImageData rotation() {
+		return Rotation.basicRotation(m_rgb, 30, Picsi.IMAGE_TYPE_RGB);
+	}
+	
+	@Benchmark
+	public ImageData grayValue() {
+		return GrayValue.extractGrayValue(m_rgb);
+	}
+	
+	@Benchmark
+	public ImageData inverter() {
+		return new Inverter().run(m_rgb, Picsi.IMAGE_TYPE_RGB);
+	}
+}
@@ -0,0 +1,82 @@
+package benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import files.IImageFile;
+import files.ImageFiles;
+import imageprocessing.ImageProcessing;
+
+/**
+ * Read and write benchmarks of the user image file formats PGM, PPM (PNM) and HUF (Huffman).
+ * PGM and HUF files are written from grayscale images, PPM files from RGB images.
+ * <pre>
+ * java -jar target/benchmarks.jar FileBenchmark -rf json -rff files.json
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx16g" })
+public class FileBenchmark {
+	static {
+		ImageFiles.registerUserImageFiles();
+	}
+	
+	@Param({ "1", "12", "50" })
+	public String megapixels;
+	
+	@Param({ "pgm", "ppm", "huf" })
+	public String format;
+	
+	private ImageData m_image;
+	private int m_imageType;
+	private int m_fileType;
+	private File m_readFile, m_writeFile;
+	
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		m_image = format.equals("ppm") ? SyntheticImages.rgb(megapixels) : SyntheticImages.gray(megapixels);
+		m_imageType = ImageProcessing.determineImageType(m_image);
+		m_readFile = File.createTempFile("picsi-read", "." + format);
+		m_writeFile = File.createTempFile("picsi-write", "." + format);
+		m_fileType = ImageFiles.determinefileType(m_readFile.getName());
+		ImageFiles.createImageFile(m_fileType).save(m_readFile.getPath(), m_fileType, m_image, m_imageType);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		m_readFile.delete();
+		m_writeFile.delete();
+	}
+	
+	@Benchmark
+	public ImageData read() throws Exception {
+		IImageFile file = ImageFiles.createImageFile(m_fileType);
+		return file.read(m_readFile.getPath());
+	}
+	
+	@Benchmark
+	public long write() throws Exception {
+		IImageFile file = ImageFiles.createImageFile(m_fileType);
+		file.save(m_writeFile.getPath(), m_fileType, m_image, m_imageType);
+		return m_writeFile.length();
+	}
+}
@@ -0,0 +1,195 @@
+package benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.Rectangle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import imageprocessing.Binarization;
+import imageprocessing.CornerDetection;
+import imageprocessing.Debayering;
+import imageprocessing.FloodFilling;
+import imageprocessing.GaussianFilter;
+import imageprocessing.HoughTransform;
+import imageprocessing.MedianFilter;
+import imageprocessing.MinMaxFilter;
+import imageprocessing.MorphologicFilter;
+import imageprocessing.Parameters;
+import imageprocessing.PatternMatching;
+import imageprocessing.ROI;
+import imageprocessing.Rotation;
+import imageprocessing.Scaling;
+import imageprocessing.fourier.FFT;
+import main.Picsi;
+import utils.BoundedPQ;
+import utils.FrequencyDomain;
+
+/**
+ * Benchmarks of the image processors on synthetic grayscale and binary images.
+ * <pre>
+ * mvn -Pjmh package
+ * java -jar target/benchmarks.jar GrayProcessorBenchmark -p megapixels=1,12 -p threads=1,0 -rf json -rff gray.json
+ * </pre>
+ * Parameter threads = 0 uses all available processors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx16g" })
+public class GrayProcessorBenchmark {
+	@Param({ "1", "12", "50" })
+	public String megapixels;
+	
+	@Param({ "1", "4", "0" })
+	public int threads;
+	
+	private ImageData m_gray;
+	private ImageData m_binary;
+	private ImageData m_labelInput;		// binarized grayscale image with values 0 and 1
+	private ROI m_pattern;
+	private FrequencyDomain m_fft;
+	private FrequencyDomain m_fht;
+	private Parameters m_debayering;
+	private Parameters m_hough;
+	
+	/**
+	 * Fresh copy of the label input for each invocation, because flood filling works in place
+	 */
+	@State(Scope.Thread)
+	public static class LabelState {
+		ImageData m_image;
+		
+		@Setup(Level.Invocation)
+		public void setup(GrayProcessorBenchmark b) {
+			m_image = (ImageData)b.m_labelInput.clone();
+		}
+	}
+	
+	@Setup(Level.Trial)
+	public void setup() {
+		SyntheticImages.setThreads(threads);
+		m_gray = SyntheticImages.gray(megapixels);
+		m_binary = SyntheticImages.binary(m_gray);
+		m_labelInput = Binarization.binarize(m_gray, Binarization.otsuThreshold(m_gray), true, false);
+		m_pattern = new ROI(m_gray, new Rectangle(m_gray.width/2, m_gray.height/2, 32, 32));
+		m_fft = FFT.fft2D(m_gray);
+		m_fht = FFT.fht2D(m_gray);
+		m_debayering = new Debayering().createParameters().parse("method=Good");
+		m_hough = new HoughTransform().createParameters();
+	}
+	
+	@Benchmark
+	public ImageData gaussian() {
+		return GaussianFilter.gaussian(2, m_gray);
+	}
+	
+	@Benchmark
+	public ImageData recursiveGaussian() {
+		return GaussianFilter.recursiveGaussian(2, m_gray);
+	}
+	
+	@Benchmark
+	public ImageData median() {
+		return MedianFilter.medianFilter(5, m_gray);
+	}
+	
+	@Benchmark
+	public ImageData median31() {
+		return MedianFilter.medianFilter(31, m_gray);
+	}
+	
+	@Benchmark
+	public ImageData erosion() {
+		return MorphologicFilter.erosion(m_binary, MorphologicFilter.s_circle5, 2, 2);
+	}
+	
+	@Benchmark
+	public ImageData dilation() {
+		return MorphologicFilter.dilation(m_binary, MorphologicFilter.s_circle5, 2, 2);
+	}
+	
+	@Benchmark
+	public ImageData opening15() {
+		final boolean[][] square15 = new boolean[15][15];
+		
+		for (boolean[] row : square15) Arrays.fill(row, true);
+		return MorphologicFilter.opening(m_binary, square15, 7, 7, 1);
+	}
+	
+	@Benchmark
+	public ImageData grayOpeningDisk15() {
+		final boolean[][] disk = MorphologicFilter.disk(15);
+		
+		return MinMaxFilter.max(MinMaxFilter.min(m_gray, disk, 15, 15), disk, 15, 15);
+	}
+	
+	@Benchmark
+	public int floodFilling(LabelState s) {
+		return FloodFilling.floodFill(s.m_image);
+	}
+	
+	@Benchmark
+	public ImageData hough() {
+		return new HoughTransform().run(m_binary, Picsi.IMAGE_TYPE_BINARY, m_hough);
+	}
+	
+	@Benchmark
+	public BoundedPQ<PatternMatching.PMResult> patternMatching() {
+		return PatternMatching.pm(m_gray, m_pattern, 10);
+	}
+	
+	@Benchmark
+	public ImageData harris() {
+		return CornerDetection.harris(m_gray, 0.05f, 20000, 10, 0);
+	}
+	
+	@Benchmark
+	public FrequencyDomain fft2D() {
+		return FFT.fft2D(m_gray);
+	}
+	
+	@Benchmark
+	public ImageData ifft2D() {
+		return FFT.ifft2D(m_fft);
+	}
+	
+	@Benchmark
+	public FrequencyDomain fht2D() {
+		return FFT.fht2D(m_gray);
+	}
+	
+	@Benchmark
+	public ImageData ifht2D() {
+		return FFT.ifht2D(m_fht);
+	}
+	
+	@Benchmark
+	public ImageData scaling() {
+		return Scaling.scale(m_gray, 1.5f, 1);
+	}
+	
+	@Benchmark
+	public ImageData rotation() {
+		return Rotation.basicRotation(m_gray, 30, Picsi.IMAGE_TYPE_GRAY);
+	}
+	
+	@Benchmark
+	public ImageData debayering() {
+		return new Debayering().run(m_gray, Picsi.IMAGE_TYPE_GRAY, m_debayering);
+	}
+}
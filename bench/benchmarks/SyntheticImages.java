@@ -0,0 +1,119 @@
+package benchmarks;
+
+import java.util.Random;
+
+import org.eclipse.swt.graphics.ImageData;
+
+import imageprocessing.Binarization;
+import imageprocessing.ImageProcessing;
+import main.Picsi;
+import utils.Gray8Raster;
+import utils.Rgb24Raster;
+
+/**
+ * Deterministic synthetic test images for benchmarks.
+ * The images contain a smooth background, dark disks (particles), straight lines and noise,
+ * such that segmentation, labeling and Hough transform have realistic work to do.
+ */
+final class SyntheticImages {
+	private SyntheticImages() {}
+	
+	/**
+	 * Returns width and height of a benchmark image
+	 * @param megapixels "1", "12", or "50"
+	 * @return { width, height }
+	 */
+	static int[] size(String megapixels) {
+		switch(megapixels) {
+		case "1": return new int[] { 1024, 1024 };
+		case "12": return new int[] { 4096, 3072 };
+		case "50": return new int[] { 8192, 6144 };
+		default: throw new IllegalArgumentException("unsupported image size: " + megapixels);
+		}
+	}
+	
+	/**
+	 * Creates a grayscale image
+	 * @param megapixels "1", "12", or "50"
+	 * @return
+	 */
+	static ImageData gray(String megapixels) {
+		final int[] size = size(megapixels);
+		final int w = size[0], h = size[1];
+		final ImageData imageData = ImageProcessing.createImage(w, h, Picsi.IMAGE_TYPE_GRAY);
+		final Gray8Raster raster = new Gray8Raster(imageData);
+		final Random random = new Random(4711);
+		
+		// smooth background with noise
+		for (int v = 0; v < h; v++) {
+			for (int u = 0; u < w; u++) {
+				raster.set(u, v, 160 + 60*u/w + 20*v/h + random.nextInt(16));
+			}
+		}
+		
+		// dark disks
+		final int nDisks = w*h/20000;
+		final int rMax = Math.max(4, Math.min(w, h)/64);
+		for (int i = 0; i < nDisks; i++) {
+			final int cu = random.nextInt(w), cv = random.nextInt(h), r = 2 + random.nextInt(rMax);
+			final int value = 20 + random.nextInt(60);
+			
+			for (int v = Math.max(0, cv - r); v < Math.min(h, cv + r + 1); v++) {
+				for (int u = Math.max(0, cu - r); u < Math.min(w, cu + r + 1); u++) {
+					if ((u - cu)*(u - cu) + (v - cv)*(v - cv) <= r*r) raster.set(u, v, value);
+				}
+			}
+		}
+		
+		// dark lines
+		for (int i = 0; i < 16; i++) {
+			final double angle = random.nextDouble()*Math.PI;
+			final double cu = random.nextInt(w), cv = random.nextInt(h);
+			final double du = Math.cos(angle), dv = Math.sin(angle);
+			final int len = Math.max(w, h);
+			
+			for (int t = -len; t < len; t++) {
+				final int u = (int)(cu + t*du), v = (int)(cv + t*dv);
+				if (u >= 0 && u < w && v >= 0 && v < h) raster.set(u, v, 10);
+			}
+		}
+		return imageData;
+	}
+	
+	/**
+	 * Creates a RGB image. The channels are derived from the grayscale image with different tints.
+	 * @param megapixels "1", "12", or "50"
+	 * @return
+	 */
+	static ImageData rgb(String megapixels) {
+		final ImageData gray = gray(megapixels);
+		final Gray8Raster in = new Gray8Raster(gray);
+		final ImageData imageData = ImageProcessing.createImage(gray.width, gray.height, Picsi.IMAGE_TYPE_RGB);
+		final Rgb24Raster out = new Rgb24Raster(imageData);
+		
+		for (int v = 0; v < gray.height; v++) {
+			for (int u = 0; u < gray.width; u++) {
+				final int g = in.get(u, v);
+				out.setRGB(u, v, g, (g*u/gray.width + g)/2, 255 - g);
+			}
+		}
+		return imageData;
+	}
+	
+	/**
+	 * Creates a binary image: dark structures of the grayscale image are foreground
+	 * @param gray grayscale image
+	 * @return
+	 */
+	static ImageData binary(ImageData gray) {
+		return Binarization.binarize(gray, Binarization.otsuThreshold(gray), true, true);
+	}
+	
+	/**
+	 * Sets the number of worker threads used by utils.Parallel
+	 * @param threads number of threads or 0 for all available processors
+	 */
+	static void setThreads(int threads) {
+		utils.Parallel.setParallelism((threads > 0) ? threads : Runtime.getRuntime().availableProcessors());
+	}
+}
@@ -6,6 +6,7 @@ import imageprocessing.Debayering;
 import imageprocessing.EdgeDetector;
 import imageprocessing.GaussianFilter;
 import imageprocessing.MedianFilter;
+import imageprocessing.MinMaxFilter;
 import imageprocessing.PatternMatching;
 import imageprocessing.colors.ChannelRGBA;
 import imageprocessing.colors.Inverter;
@@ -58,6 +59,7 @@ public class ImageMenu extends UserMenu {
         channels = addMenu("Filters");
         channels.add("&Gaussianblur\tF4", SWT.F4, new GaussianFilter());
         channels.add("&Median\tF5", SWT.F5, new MedianFilter());
+        channels.add("Mi&n/Max\tF11", SWT.F11, new MinMaxFilter());
         channels = addMenu("Detectors");
         channels.add("Edge Detector\tF6", SWT.F6, new EdgeDetector());
         channels.add("Corner Detector\tF7", SWT.F7, new CornerDetection());
@@ -17,6 +17,7 @@ import org.eclipse.swt.widgets.MenuItem;
 public class MRU {
 	private static int MaxMRUitems = 6;	// number of items in the MRU list
 	private static String LastOperation = "LastOperation";
+	private static String Parameters = "Parameters";
 	private static String[] Keys = { "0", "1", "2", "3", "4", "5" };
 	
 	private MainWindow m_mainWindow;	// main window
@@ -59,6 +60,33 @@ public class MRU {
 		m_mru.put(LastOperation, text);
 	}
 	
+	/**
+	 * Returns the string form of the last used parameters of an operation or null
+	 * @param operation menu item text
+	 * @return
+	 */
+	public String getParameters(String operation) {
+		if (m_mru == null) return null;
+
+		return m_mru.node(Parameters).get(parameterKey(operation), null);
+	}
+	
+	/**
+	 * Stores the string form of the last used parameters of an operation
+	 * @param operation menu item text
+	 * @param params string form of parameters
+	 */
+	public void setParameters(String operation, String params) {
+		if (m_mru == null) return;
+		assert params != null : "params are null";
+
+		m_mru.node(Parameters).put(parameterKey(operation), params);
+	}
+	
+	private static String parameterKey(String operation) {
+		return (operation.length() > Preferences.MAX_KEY_LENGTH) ? operation.substring(0, Preferences.MAX_KEY_LENGTH) : operation;
+	}
+	
 	/**
 	 * Adds MRU list to given menu
 	 * @param recent menu
@@ -1,6 +1,11 @@
 package gui;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.swing.JTextArea;
 import org.eclipse.swt.SWT;
@@ -18,6 +23,8 @@ import files.Document;
 import files.ImageFiles;
 import imageprocessing.ImageProcessing;
 import imageprocessing.colors.ColorSpaces;
+import utils.Metrics;
+import utils.ProgressMonitor;
 
 /**
  * Picsi SWT main window
@@ -38,6 +45,14 @@ public class MainWindow {
 	private Editor m_editor;
 	private String m_lastPath; // used to seed the file dialog
 	private Label m_statusLabel, m_zoomLabel;
+	private ProgressBar m_progressBar;	// visible while a background operation is running
+	private Button m_cancelButton;		// cancels the background operation
+	private ProgressMonitor m_monitor;	// monitor of the running background operation or null
+	private final ExecutorService m_executor = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "Picsi image processing");
+		t.setDaemon(true);
+		return t;
+	});
 	private MenuItem m_editMenuItem;
 	private ImageMenu m_imageMenu; // used in find-and-run
 
@@ -73,6 +88,8 @@ public class MainWindow {
 				@Override
 				public void widgetDisposed(DisposeEvent e) {
 					// clean up
+					if (m_monitor != null) m_monitor.cancel();
+					m_executor.shutdown();
 					if (m_views != null) m_views.dispose();
 					if (m_editor != null) m_editor.dispose();
 				}
@@ -150,7 +167,7 @@ public class MainWindow {
 			
 			GridLayout gridLayout = new GridLayout();
 			gridLayout.marginRight = 5;
-			gridLayout.numColumns = 2;
+			gridLayout.numColumns = 4;
 			gridLayout.horizontalSpacing = 10;
 			gridLayout.marginHeight = 0;
 			gridLayout.marginWidth = 0;
@@ -161,6 +178,26 @@ public class MainWindow {
 			data = new GridData(SWT.FILL, SWT.FILL, true, true);
 			m_statusLabel.setLayoutData(data);
 			
+			// Progress bar and cancel button of background operations
+			m_progressBar = new ProgressBar(compo, SWT.HORIZONTAL | SWT.SMOOTH);
+			data = new GridData(SWT.RIGHT, SWT.CENTER, false, true);
+			data.widthHint = SizePaneWidth;
+			m_progressBar.setLayoutData(data);
+			m_cancelButton = new Button(compo, SWT.PUSH);
+			m_cancelButton.setText(SWT.getMessage("SWT_Cancel"));
+			m_cancelButton.setLayoutData(new GridData(SWT.RIGHT, SWT.CENTER, false, true));
+			m_cancelButton.addSelectionListener(new SelectionAdapter() {
+				@Override
+				public void widgetSelected(SelectionEvent event) {
+					if (m_monitor != null) {
+						m_monitor.cancel();
+						m_cancelButton.setEnabled(false);
+						m_statusLabel.setText("Canceling...");
+					}
+				}
+			});
+			showProgressControls(false);
+			
 			// Label to show image size and zoom value
 			m_zoomLabel = new Label(compo, SWT.RIGHT);
 			data = new GridData(SWT.RIGHT, SWT.FILL, false, true);
@@ -383,6 +420,72 @@ public class MainWindow {
 		return retValue;
 	}
 
+	/**
+	 * Runs an image operation in a background thread, such that the user interface stays responsive.
+	 * While the operation is running the menu is disabled and the status bar shows the progress and a cancel button.
+	 * Canceling stops the parallel loops of the operation cooperatively. The output image is shown in the second view
+	 * and the metrics of the operation are shown in the status bar.
+	 * Must be called in the UI thread.
+	 * @param operation operation name used in status and error messages
+	 * @param parameters parameters in string form used in the metrics, or null
+	 * @param inData input image of the job
+	 * @param job computes the output image or null; it must neither access widgets nor open dialogs
+	 */
+	public void runInBackground(String operation, String parameters, ImageData inData, Callable<ImageData> job) {
+		assert m_monitor == null : "another operation is running";
+		
+		final ProgressMonitor monitor = new ProgressMonitor((pass, fraction) -> asyncExec(this::showProgress));
+		
+		m_monitor = monitor;
+		setEnabledMenu(false);
+		m_progressBar.setSelection(0);
+		m_cancelButton.setEnabled(true);
+		showProgressControls(true);
+		m_statusLabel.setText(operation + "...");
+		
+		m_executor.execute(() -> {
+			ImageData output = null;
+			Metrics.Record record = null;
+			Throwable error = null;
+			
+			try {
+				final Metrics.Measurement m = Metrics.start(operation, parameters, inData.width, inData.height, monitor);
+				
+				output = monitor.run(job);
+				record = m.stop();
+			} catch(Throwable e) {
+				error = e;
+			}
+			
+			final ImageData outData = output;
+			final Metrics.Record metrics = record;
+			final Throwable ex = error;
+			
+			asyncExec(() -> {
+				m_monitor = null;
+				showProgressControls(false);
+				setEnabledMenu(true);
+				if (monitor.isCanceled() || ex instanceof CancellationException) {
+					m_statusLabel.setText(operation + " canceled");
+				} else if (ex != null) {
+					m_statusLabel.setText("");
+					showErrorDialog("ImageProcessing", operation, ex);
+				} else {
+					if (outData != null) m_views.showImageInSecondView(outData);
+					showMetrics(metrics);
+				}
+			});
+		});
+	}
+	
+	/**
+	 * Shows the metrics of an image operation in the status bar
+	 * @param metrics
+	 */
+	public void showMetrics(Metrics.Record metrics) {
+		m_statusLabel.setText(metrics.toString());
+	}
+	
 	/**
 	 * Used to disable the menu during line tracking
 	 * @param enabled
@@ -405,6 +508,79 @@ public class MainWindow {
 	/////////////////////////////////////////////////////////////////////////////////////////////////////7
 	// private methods section
 	
+	/**
+	 * Executes the runnable asynchronously in the UI thread, unless the window has been closed
+	 * @param runnable
+	 */
+	private void asyncExec(Runnable runnable) {
+		if (m_display.isDisposed()) return;
+		try {
+			m_display.asyncExec(() -> {
+				if (!m_shell.isDisposed()) runnable.run();
+			});
+		} catch(SWTException ex) {
+			// display has been disposed in the meantime
+		}
+	}
+	
+	/**
+	 * Shows a summary and the most recent entries of the metrics log. The log can be saved as JSON file.
+	 */
+	private void showOperationMetrics() {
+		final int Recent = 10;
+		final List<Metrics.Record> log = Metrics.getLog();
+		StringBuilder sb = new StringBuilder();
+		
+		if (log.isEmpty()) {
+			sb.append("No operations have been measured yet.");
+		} else {
+			sb.append(Metrics.summary()).append("\nMost recent operations:\n");
+			for (Metrics.Record r : log.subList(Math.max(0, log.size() - Recent), log.size())) {
+				sb.append(String.format("%s (%dx%d)%n", r, r.m_width, r.m_height));
+			}
+		}
+		
+		int option = OptionPane.showOptionDialog(sb.toString(), SWT.ICON_INFORMATION, new Object[] { "Close", "Save JSON...", "Clear" }, 0);
+		
+		if (option == 1) {
+			FileDialog dialog = new FileDialog(m_shell, SWT.SAVE);
+			dialog.setFilterExtensions(new String[] { "*.json" });
+			dialog.setFileName("metrics.json");
+			dialog.setOverwrite(true);
+			
+			String fileName = dialog.open();
+			if (fileName != null) {
+				try {
+					Metrics.writeJSON(fileName);
+				} catch(IOException e) {
+					showErrorDialog("saving", fileName, e);
+				}
+			}
+		} else if (option == 2) {
+			Metrics.clearLog();
+		}
+	}
+	
+	/**
+	 * Shows the progress of the running background operation. Must be called in the UI thread.
+	 */
+	private void showProgress() {
+		final ProgressMonitor monitor = m_monitor;
+		
+		if (monitor != null && !monitor.isCanceled()) {
+			m_progressBar.setSelection(Math.round(monitor.getFraction()*m_progressBar.getMaximum()));
+			m_progressBar.setToolTipText("Pass " + monitor.getPass());
+		}
+	}
+	
+	private void showProgressControls(boolean visible) {
+		for (Control c : new Control[] { m_progressBar, m_cancelButton }) {
+			((GridData)c.getLayoutData()).exclude = !visible;
+			c.setVisible(visible);
+		}
+		m_progressBar.getParent().layout();
+	}
+	
 	private Menu createMenuBar() {
 		// Menu bar.
 		Menu menuBar = new Menu(m_shell, SWT.BAR);
@@ -954,7 +1130,7 @@ public class MainWindow {
 	
 	// Tools menu
 	private void createToolsMenu(Menu menuBar) {
-		enum ME { ColorTable, Histogram, Line, PSNR, FFT };
+		enum ME { ColorTable, Histogram, Line, PSNR, FFT, Metrics };
 		
 		MenuItem item = new MenuItem(menuBar, SWT.CASCADE);
 		item.setText("&Tools");
@@ -1061,6 +1237,16 @@ public class MainWindow {
 				}
 			}
 		});
+
+		// Tools -> Operation Metrics
+		item = new MenuItem(windowMenu, SWT.PUSH);
+		item.setText("Operation &Metrics...");
+		item.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent event) {
+				showOperationMetrics();
+			}
+		});
 	}
 	
 	// Window menu
@@ -10,6 +10,7 @@ import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.widgets.*;
 
+import imageprocessing.Parameters;
 import main.Picsi;
 
 /**
@@ -232,4 +233,40 @@ public class OptionPane extends Dialog {
 		}
 		return defaultValue;
 	}
+
+	/**
+	 * Asks the user for all parameters. The current values are used as default values.
+	 * @param params parameter set, its values are updated
+	 * @return false if the user has canceled a dialog
+	 * @throws IllegalArgumentException if an entered value is out of range
+	 */
+	public static boolean showParameterDialog(Parameters params) {
+		for (String name : params.names()) {
+			String prompt = params.getPrompt(name);
+
+			switch(params.getType(name)) {
+			case INTEGER:
+				Integer i = showIntegerDialog(prompt, params.getInteger(name));
+				if (i == null) return false;
+				params.setInteger(name, i);
+				break;
+			case FLOAT:
+				Float f = showFloatDialog(prompt, params.getFloat(name));
+				if (f == null) return false;
+				params.setFloat(name, f);
+				break;
+			case BOOLEAN:
+				int b = showOptionDialog(prompt, SWT.ICON_QUESTION, new Object[]{ "True", "False" }, params.getBoolean(name) ? 0 : 1);
+				if (b < 0) return false;
+				params.setBoolean(name, b == 0);
+				break;
+			case CHOICE:
+				int c = showOptionDialog(prompt, SWT.ICON_INFORMATION, params.getChoices(name), params.getChoice(name));
+				if (c < 0) return false;
+				params.setChoice(name, c);
+				break;
+			}
+		}
+		return true;
+	}
 }
@@ -10,6 +10,10 @@ import org.eclipse.swt.widgets.Menu;
 import org.eclipse.swt.widgets.MenuItem;
 
 import imageprocessing.IImageProcessor;
+import imageprocessing.IParameterizedProcessor;
+import imageprocessing.Parameters;
+import utils.Metrics;
+import utils.ProgressMonitor;
 
 /**
  * Base class for user defined menus
@@ -53,7 +57,7 @@ public class UserMenu {
 		mi.setData(proc);
 		mi.addSelectionListener(new SelectionAdapter() {
 			public void widgetSelected(SelectionEvent event) {
-				run(mi);
+				run(mi, false);
 				m_mru.setLastOperation(text);
 			}
 		});
@@ -83,7 +87,7 @@ public class UserMenu {
 				IImageProcessor proc = (IImageProcessor)mi.getData();
 				
 				if (proc.isEnabled(m_views.getImageType(true))) {
-					run(mi);
+					run(mi, true);
 				}
 				return true;
 			}		
@@ -91,20 +95,69 @@ public class UserMenu {
 		return false;
 	}
 	
-	private void run(MenuItem mi) {
+	/**
+	 * Runs the image processor of the given menu item.
+	 * Parameterized processors are initialized with their last used parameters. After the parameters have been
+	 * chosen, they run in a background thread and can be canceled. Other processors may open dialogs
+	 * during their run, therefore they run in the UI thread and their metrics include the user interaction.
+	 * @param mi menu item
+	 * @param repeat true: the last used parameters are reused without asking the user
+	 */
+	private void run(MenuItem mi, boolean repeat) {
 		try {
 			IImageProcessor proc = (IImageProcessor)mi.getData();
 			
-			ImageData output = proc.run(m_views.getImage(true), m_views.getImageType(true));
-			if (output != null) {
-				m_views.showImageInSecondView(output);
-			}		
+			if (proc instanceof IParameterizedProcessor) {
+				IParameterizedProcessor pp = (IParameterizedProcessor)proc;
+				Parameters params = pp.createParameters();
+				String last = m_mru.getParameters(mi.getText());
+				boolean ask = !repeat || last == null;
+				
+				if (last != null) {
+					try {
+						params.parse(last);
+					} catch(IllegalArgumentException ex) {
+						// parameters of an older version: use defaults
+						params = pp.createParameters();
+						ask = true;
+					}
+				}
+				if (ask) {
+					if (!OptionPane.showParameterDialog(params)) return;
+					m_mru.setParameters(mi.getText(), params.toString());
+				}
+				
+				final ImageData inData = m_views.getImage(true);
+				final int imageType = m_views.getImageType(true);
+				final Parameters p = params;
+				
+				m_views.m_mainWnd.runInBackground(operationName(mi), p.toString(), inData, () -> pp.run(inData, imageType, p));
+			} else {
+				final ImageData inData = m_views.getImage(true);
+				final int imageType = m_views.getImageType(true);
+				final ProgressMonitor monitor = new ProgressMonitor();
+				final Metrics.Measurement m = Metrics.start(operationName(mi), null, inData.width, inData.height, monitor);
+				ImageData output = monitor.run(() -> proc.run(inData, imageType));
+				
+				m_views.m_mainWnd.showMetrics(m.stop());
+				if (output != null) {
+					m_views.showImageInSecondView(output);
+				}
+			}
 		} catch(Throwable e) {
-			String text = mi.getText();
-			int last = text.indexOf('\t');
-			if (last == -1) last = text.length();
-			String location = text.substring(0, last).replace("&", "");
-			m_views.m_mainWnd.showErrorDialog("ImageProcessing", location, e);
+			m_views.m_mainWnd.showErrorDialog("ImageProcessing", operationName(mi), e);
 		}						
 	}
+	
+	/**
+	 * Returns the menu item text without accelerator and mnemonics
+	 * @param mi menu item
+	 * @return
+	 */
+	private static String operationName(MenuItem mi) {
+		String text = mi.getText();
+		int last = text.indexOf('\t');
+		if (last == -1) last = text.length();
+		return text.substring(0, last).replace("&", "");
+	}
 }
@@ -2,6 +2,8 @@ package imageprocessing;
 
 import main.Picsi;
 import org.eclipse.swt.graphics.ImageData;
+import utils.Binary1Raster;
+import utils.Gray8Raster;
 import utils.Parallel;
 
 /**
@@ -40,11 +42,31 @@ public class Binarization implements IImageProcessor {
 		final int fg = (smallValuesAreForeground) ? s_foreground : s_background;
 		final int bg = (smallValuesAreForeground) ? s_background : s_foreground;
 
-		Parallel.For(0, inData.height, v -> {
-			for (int u=0; u < inData.width; u++) {
-				outData.setPixel(u, v, (inData.getPixel(u,v) <= threshold) ? fg : bg);
-			}
-		});
+		final Gray8Raster in = new Gray8Raster(inData);
+
+		if (binary) {
+			final Binary1Raster out = new Binary1Raster(outData);
+
+			Parallel.For(0, inData.height, v -> {
+				final int[] row = new int[inData.width];
+				final int inRow = in.row(v);
+
+				for (int u=0; u < inData.width; u++) {
+					row[u] = ((in.m_data[inRow + u] & 0xFF) <= threshold) ? fg : bg;
+				}
+				out.setRow(v, row);
+			});
+		} else {
+			final Gray8Raster out = new Gray8Raster(outData);
+
+			Parallel.For(0, inData.height, v -> {
+				final int inRow = in.row(v), outRow = out.row(v);
+
+				for (int u=0; u < inData.width; u++) {
+					out.m_data[outRow + u] = (byte)(((in.m_data[inRow + u] & 0xFF) <= threshold) ? fg : bg);
+				}
+			});
+		}
 		return outData;
 	}
 
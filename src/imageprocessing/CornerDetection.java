@@ -1,14 +1,12 @@
 package imageprocessing;
 
-import gui.OptionPane;
 import imageprocessing.grayValueConverter.GrayValue;
 import main.Picsi;
-import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.ImageData;
 import utils.Parallel;
 
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -16,8 +14,8 @@ import java.util.List;
  *
  * @author Christoph Stamm
  */
-public class CornerDetection implements IImageProcessor {
-    private static class Corner implements Comparable<Corner> {
+public class CornerDetection implements IParameterizedProcessor {
+    private static class Corner {
         public int m_u, m_v;
         public double m_q;
 
@@ -27,13 +25,9 @@ public class CornerDetection implements IImageProcessor {
             m_q = q;
         }
 
-        public int compareTo(Corner c) {
-            return Double.compare(c.m_q, m_q);
-        }
-
-        public int dist2(Corner c) {
-            int du = c.m_u - m_u;
-            int dv = c.m_v - m_v;
+        public int dist2(int u, int v) {
+            int du = u - m_u;
+            int dv = v - m_v;
             return du * du + dv * dv;
         }
     }
@@ -44,43 +38,44 @@ public class CornerDetection implements IImageProcessor {
     }
 
     @Override
-    public ImageData run(ImageData inData, int imageType) {
-        // let the user choose the corner detection method
-        Object[] methods = {"Harris", "Median-Difference"};
-        int f = OptionPane.showOptionDialog("Corner Detection Method", SWT.ICON_INFORMATION, methods, 0);
+    public Parameters createParameters() {
+        return new Parameters()
+                .addChoice("method", "Corner Detection Method", 0, "Harris", "Median-Difference")
+                .addFloat("alpha", "alpha (Harris)", 0.05f, 0, 0.25f)
+                .addFloat("threshold", "threshold (Harris)", 20000, 0, Float.MAX_VALUE)
+                .addInteger("medianThreshold", "threshold (Median-Difference)", 50, 0, 255)
+                .addFloat("dmin", "dmin", 10, 0, 10000)
+                .addInteger("count", "maximum number of corners (0: all)", 0, 0, Integer.MAX_VALUE);
+    }
 
+    @Override
+    public ImageData run(ImageData inData, int imageType, Parameters params) {
         if (imageType == Picsi.IMAGE_TYPE_RGB || imageType == Picsi.IMAGE_TYPE_INDEXED) {
             inData = GrayValue.extractGrayValue(inData);
         }
 
-        switch (f) {
+        switch (params.getChoice("method")) {
             case 0:
-                return harris(inData);
+                return harris(inData, params.getFloat("alpha"), params.getFloat("threshold"), params.getFloat("dmin"), params.getInteger("count"));
             case 1:
-                return median(inData);
+                return median(inData, params.getInteger("medianThreshold"), params.getFloat("dmin"), params.getInteger("count"));
             default:
                 return null;
         }
 
     }
 
-    public static ImageData harris(ImageData inData) {
-        float alpha = 0.05f;
-        float threshold = 20000;
-        float dmin = 10;
-
-        Float aFloat = OptionPane.showFloatDialog("alpha", alpha);
-        if (aFloat == null) return null;
-        alpha = aFloat;
-
-        Float tFloat = OptionPane.showFloatDialog("threshold", threshold);
-        if (tFloat == null) return null;
-        threshold = tFloat;
-
-        Float dFloat = OptionPane.showFloatDialog("dmin", dmin);
-        if (dFloat == null) return null;
-        dmin = dFloat;
-
+    /**
+     * Harris corner detection
+     *
+     * @param inData    gray-value image
+     * @param alpha     sensitivity of the corner response function
+     * @param threshold minimum corner response
+     * @param dmin      minimum distance between two corners
+     * @param count     maximum number of corners, 0: all
+     * @return darkened input image with marked corners
+     */
+    public static ImageData harris(ImageData inData, float alpha, float threshold, float dmin, int count) {
         // filters
         final float[] hp = {2.f / 9, 5.f / 9, 2.f / 9}; // Gauss filter
         final float[] hd = {-0.453014f, 0, 0.453014f}; // derivative filter
@@ -142,79 +137,53 @@ public class CornerDetection implements IImageProcessor {
             }
         }
 
-        // collect corner points in parallel
-        final float th = threshold;
-        List<Corner> corners = new LinkedList<>();
-        ImageData outData = (ImageData) inData.clone();
-
-        Parallel.For(0, outData.height,
-                // creator
-                () -> new LinkedList<Corner>(),
-                // loop body
-                (v, list) -> {
-                    for (int u = 0; u < outData.width; u++) {
-                        if (q[v][u] > th && isLocalMax(q, u, v)) {
-                            // add corner
-                            list.add(new Corner(u, v, q[v][u]));
-                        }
-
-                        // copy darker input image to output image
-                        outData.setPixel(u, v, inData.getPixel(u, v) / 2);
-                    }
-                },
-                // reducer
-                list -> corners.addAll(list)
-        );
-
-        // clean-up neighbors
-        List<Corner> good = cleanUpNeighbors(corners, dmin);
+        // collect corner points and clean-up neighbors
+        final List<Corner> good = cleanUpNeighbors(q, threshold, true, dmin, count);
+        final ImageData outData = darken(inData);
 
         drawCorners(outData, good);
         return outData;
     }
 
-    public static ImageData median(ImageData inData) {
+    /**
+     * Median-difference corner detection
+     *
+     * @param inData    gray-value image
+     * @param threshold minimum absolute difference between a pixel and its median
+     * @param dmin      minimum distance between two corners
+     * @param count     maximum number of corners, 0: all
+     * @return darkened input image with marked corners
+     */
+    public static ImageData median(ImageData inData, int threshold, float dmin, int count) {
         ImageData medData = MedianFilter.medianFilter(3, inData);
+        final float[][] diff = new float[inData.height][inData.width];
 
-        // let the user choose the parameters
-        Integer tInt = OptionPane.showIntegerDialog("threshold", 50);
-        if (tInt == null) return null;
+        // absolute difference between pixel and median
+        Parallel.For(0, inData.height, v -> {
+            for (int u = 0; u < inData.width; u++) {
+                diff[v][u] = Math.abs(inData.getPixel(u, v) - medData.getPixel(u, v));
+            }
+        });
 
-        Integer dInt = OptionPane.showIntegerDialog("dmin", 10);
-        if (dInt == null) return null;
+        // collect corner points and clean-up neighbors
+        final List<Corner> good = cleanUpNeighbors(diff, threshold, false, dmin, count);
+        final ImageData outData = darken(inData);
 
-        // collect corner points in parallel
-        final int th = tInt;
-        List<Corner> corners = new LinkedList<>();
-        ImageData outData = (ImageData) inData.clone();
-
-        Parallel.For(0, outData.height,
-                // creator
-                () -> new LinkedList<Corner>(),
-                // loop body
-                (v, list) -> {
-                    for (int u = 0; u < outData.width; u++) {
-                        final int p1 = inData.getPixel(u, v);
-                        final int p2 = medData.getPixel(u, v);
-                        final int val = Math.abs(p1 - p2);
-
-                        if (val > th) {
-                            // add corner
-                            list.add(new Corner(u, v, val));
-                        }
-
-                        // copy darker input image to output image
-                        outData.setPixel(u, v, inData.getPixel(u, v) / 2);
-                    }
-                },
-                // reducer
-                list -> corners.addAll(list)
-        );
+        drawCorners(outData, good);
+        return outData;
+    }
 
-        // clean-up neighbors
-        List<Corner> good = cleanUpNeighbors(corners, dInt);
+    /**
+     * Copies the input image with halved gray values
+     */
+    private static ImageData darken(ImageData inData) {
+        ImageData outData = (ImageData) inData.clone();
 
-        drawCorners(outData, good);
+        Parallel.For(0, outData.height, v -> {
+            for (int u = 0; u < outData.width; u++) {
+                outData.setPixel(u, v, inData.getPixel(u, v) / 2);
+            }
+        });
         return outData;
     }
 
@@ -267,27 +236,77 @@ public class CornerDetection implements IImageProcessor {
         return true;
     }
 
-    private static List<Corner> cleanUpNeighbors(List<Corner> corners, float dmin) {
+    /**
+     * Collects the corner candidates in parallel and takes them in descending order of their response,
+     * of equal responses in raster order.
+     * A candidate is dropped if it is closer than dmin to a stronger corner.
+     *
+     * @param q         corner response
+     * @param threshold minimum response of a candidate
+     * @param localMax  true: candidates have to be local maxima of the response
+     * @param dmin      minimum distance between two corners
+     * @param count     maximum number of corners, 0: all
+     * @return corners in descending order of their response
+     */
+    private static List<Corner> cleanUpNeighbors(float[][] q, float threshold, boolean localMax, float dmin, int count) {
+        final int h = q.length, w = q[0].length;
         final float dmin2 = dmin * dmin;
-        List<Corner> good = new LinkedList<>();
-
-        // sort corners by q in descending order
-        corners.sort(null);
-
-        while (corners.size() > 0) {
-            Corner c = corners.remove(0);
-            good.add(c);
-            Iterator<Corner> it = corners.iterator();
-            while (it.hasNext()) {
-                Corner d = it.next();
-                if (c.dist2(d) < dmin2) {
-                    it.remove();
+        final int[] rowStart = new int[h + 1];
+
+        // count candidates per row
+        Parallel.For(0, h, v -> {
+            int n = 0;
+            for (int u = 0; u < w; u++) {
+                if (isCandidate(q, u, v, threshold, localMax)) n++;
+            }
+            rowStart[v + 1] = n;
+        });
+        for (int v = 0; v < h; v++) rowStart[v + 1] += rowStart[v];
+
+        // candidates as sort keys: descending response in the upper half, position v*w + u in the lower half
+        final long[] keys = new long[rowStart[h]];
+
+        Parallel.For(0, h, v -> {
+            int k = rowStart[v];
+            for (int u = 0; u < w; u++) {
+                if (isCandidate(q, u, v, threshold, localMax)) keys[k++] = ((long) ~sortable(q[v][u]) << 32) | (v * w + u);
+            }
+        });
+        Arrays.parallelSort(keys);
+
+        final List<Corner> good = new ArrayList<>();
+
+        for (long key : keys) {
+            final int pos = (int) key;
+            final int u = pos % w, v = pos / w;
+            boolean isolated = true;
+
+            for (Corner c : good) {
+                if (c.dist2(u, v) < dmin2) {
+                    isolated = false;
+                    break;
                 }
             }
+            if (isolated) {
+                good.add(new Corner(u, v, q[v][u]));
+                if (good.size() == count) break;
+            }
         }
         return good;
     }
 
+    /**
+     * Maps a float to an int with the same order
+     */
+    private static int sortable(float f) {
+        final int bits = Float.floatToIntBits(f);
+        return bits ^ ((bits >> 31) & 0x7FFFFFFF);
+    }
+
+    private static boolean isCandidate(float[][] q, int u, int v, float threshold, boolean localMax) {
+        return q[v][u] > threshold && (!localMax || isLocalMax(q, u, v));
+    }
+
     private static void convolveXY(float[][] data, float[] filterX, float[] filterY) {
         float[][] tmp = new float[data.length][data[0].length];
 
@@ -1,8 +1,6 @@
 package imageprocessing;
 
-import gui.OptionPane;
 import main.Picsi;
-import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.ImageData;
 import org.eclipse.swt.graphics.RGB;
 import utils.Parallel;
@@ -12,7 +10,7 @@ import utils.Parallel;
  *
  * @author Christoph Stamm
  */
-public class Debayering implements IImageProcessor {
+public class Debayering implements IParameterizedProcessor {
     static final int Bypp = 3;
 
     @Override
@@ -21,10 +19,13 @@ public class Debayering implements IImageProcessor {
     }
 
     @Override
-    public ImageData run(ImageData inData, int imageType) {
-        Object[] outputTypes = {"Simple", "Good"};
-        int ch = OptionPane.showOptionDialog("Debayering algorithms", SWT.ICON_QUESTION, outputTypes, 0);
-        if (ch < 0) return null;
+    public Parameters createParameters() {
+        return new Parameters().addChoice("method", "Debayering algorithms", 0, "Simple", "Good");
+    }
+
+    @Override
+    public ImageData run(ImageData inData, int imageType, Parameters params) {
+        final int ch = params.getChoice("method");
 
         // Debayering of raw input image
         if (ch == 0) return debayering1(inData);
@@ -5,6 +5,8 @@ import imageprocessing.grayValueConverter.GrayValue;
 import main.Picsi;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.ImageData;
+import utils.Binary1Raster;
+import utils.Gray8Raster;
 import utils.Parallel;
 
 public class EdgeDetector implements IImageProcessor {
@@ -44,6 +46,45 @@ public class EdgeDetector implements IImageProcessor {
         return out;
     }
 
+    /**
+     * Gradient with the derivative operators H_x and H_y, normalized by their absolute sum 32.
+     * Outside the image the border pixels are continued.
+     *
+     * @param in gray-value image or binary image (foreground is 255)
+     * @param gx output: horizontal derivative, row by row, at least width*height values
+     * @param gy output: vertical derivative, row by row, at least width*height values
+     */
+    public static void gradients(ImageData in, float[] gx, float[] gy) {
+        final int w = in.width, h = in.height;
+        final byte[] gray = new byte[w * h];
+
+        if (in.depth == 1) {
+            final Binary1Raster raster = new Binary1Raster(in);
+            Parallel.For(0, h, v -> {
+                for (int u = 0; u < w; u++) gray[v * w + u] = (byte) (raster.get(u, v) * 255);
+            });
+        } else {
+            final Gray8Raster raster = new Gray8Raster(in);
+            Parallel.For(0, h, v -> {
+                for (int u = 0; u < w; u++) gray[v * w + u] = (byte) raster.get(u, v);
+            });
+        }
+
+        Parallel.For(0, h, v -> {
+            final int r0 = Math.max(v - 1, 0) * w, r1 = v * w, r2 = Math.min(v + 1, h - 1) * w;
+
+            for (int u = 0; u < w; u++) {
+                final int ul = Math.max(u - 1, 0), ur = Math.min(u + 1, w - 1);
+                final int a = gray[r0 + ul] & 0xFF, b = gray[r0 + u] & 0xFF, c = gray[r0 + ur] & 0xFF;
+                final int d = gray[r1 + ul] & 0xFF, f = gray[r1 + ur] & 0xFF;
+                final int g = gray[r2 + ul] & 0xFF, k = gray[r2 + u] & 0xFF, l = gray[r2 + ur] & 0xFF;
+
+                gx[r1 + u] = (3 * (c - a) + 10 * (f - d) + 3 * (l - g)) / 32f;
+                gy[r1 + u] = (3 * (g - a) + 10 * (k - b) + 3 * (l - c)) / 32f;
+            }
+        });
+    }
+
     private ImageData detectEdges(ImageData inData, int edgeType) {
         ImageData horizontal_image = ImageProcessing.createImage(inData.width, inData.height, Picsi.IMAGE_TYPE_GRAY);
         float[][] horizontal_weights = new float[inData.width][inData.height];
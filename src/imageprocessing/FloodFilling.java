@@ -2,100 +2,311 @@ package imageprocessing;
 
 import main.Picsi;
 import org.eclipse.swt.graphics.ImageData;
+import utils.Gray8Raster;
+import utils.Parallel;
+import utils.Rgb24Raster;
 
 import java.awt.*;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 /**
  * Flood Filling
+ * <p>
+ * Connected foreground regions are labeled with a two-pass union-find algorithm: the first raster scan assigns
+ * provisional labels and unites the labels of connected neighbours, the second scan replaces provisional labels by
+ * final labels. Labels are written into an int buffer, hence the number of regions isn't limited to 8 bits.
+ * Large images are labeled in parallel strips.
  *
  * @author Christoph Stamm
  */
-public class FloodFilling implements IImageProcessor {
+public class FloodFilling implements IParameterizedProcessor {
     public static int s_background = 0; // white
     public static int s_foreground = 1; // black
 
+    private static final int MinStripHeight = 64; // minimum number of rows of a strip labeled in parallel
+
     @Override
     public boolean isEnabled(int imageType) {
         return imageType == Picsi.IMAGE_TYPE_GRAY;
     }
 
     @Override
-    public ImageData run(ImageData input, int imageType) {
+    public Parameters createParameters() {
+        return new Parameters().addChoice("connectivity", "Connectivity", 0, "4", "8");
+    }
+
+    @Override
+    public ImageData run(ImageData input, int imageType, Parameters params) {
         final int threshold = Binarization.otsuThreshold(input);
+        final int connectivity = (params.getChoice("connectivity") == 0) ? 4 : 8;
 
         ImageData binary = Binarization.binarize(input, threshold, false, false);
+        final int[] labels = new int[binary.width * binary.height];
 
-        int nLabels = floodFill(binary);
+        int nLabels = label(binary, connectivity, labels);
         System.out.println("Anzahl Muenzen: " + nLabels);
 
-        return falseColor(binary, nLabels + 2);
+        return falseColor(labels, binary.width, binary.height, nLabels);
     }
 
     /**
-     * Labeling of a binarized grayscale image
+     * Labeling of a binarized grayscale image with 4-connectivity
      *
-     * @param imageData input: grayscale image with intensities 0 and 1 only, output: labeled foreground regions
+     * @param imageData input: grayscale image with intensities 0 and 1 only, output: labeled foreground regions with
+     *                  values 2..254 and background 255. If there are more than 253 regions, then the values repeat.
      * @return number of regions
      */
     public static int floodFill(ImageData imageData) {
         assert ImageProcessing.determineImageType(imageData) == Picsi.IMAGE_TYPE_GRAY;
 
-        int m = 2; // label number/value of pixel
+        final int[] labels = new int[imageData.width * imageData.height];
+        final int n = label(imageData, 4, labels);
+        final Gray8Raster raster = new Gray8Raster(imageData);
 
-        boolean[][] visited = new boolean[imageData.width][imageData.height];
-        Queue<Point> queue = new LinkedList<>();
-
-        int[] neighbour_x = {1, -1, 0, 0};
-        int[] neighbour_y = {0, 0, 1, -1};
+        // Background has to be white -> 255 in grayscale
+        Parallel.For(0, imageData.height, v -> {
+            final int row = raster.row(v);
 
-        for (int v = 0; v < imageData.height; v++) {
             for (int u = 0; u < imageData.width; u++) {
-                if (imageData.getPixel(u, v) == s_foreground && !visited[u][v]) {    //add Vordergrund to queue
-                    queue.add(new Point(u, v));
-                    visited[u][v] = true;
-
-                    while (!queue.isEmpty()) {
-                        Point point = queue.poll();
-                        int x = point.x;
-                        int y = point.y;
-
-                        imageData.setPixel(x, y, m);
-
-                        // add neighbours
-                        for (int i = 0; i < 4; i++) {
-                            int x_n = x + neighbour_x[i];
-                            int y_n = y + neighbour_y[i];
-
-                            if (x_n >= 0 &&
-                                    x_n < imageData.width &&
-                                    y_n >= 0 &&
-                                    y_n < imageData.height &&
-                                    !visited[x_n][y_n] &&
-                                    imageData.getPixel(x_n, y_n) == s_foreground) {
-                                queue.add(new Point(x_n, y_n));
-                                visited[x_n][y_n] = true;
-                            }
-                        }
-                    }
+                final int l = labels[v * imageData.width + u];
+                raster.m_data[row + u] = (byte) ((l == 0) ? 255 : 2 + (l - 1) % 253);
+            }
+        });
+        return n;
+    }
+
+    /**
+     * Two-pass union-find labeling of the foreground pixels.
+     * Large images are divided into horizontal strips. The strips are labeled in parallel, then the labels of
+     * connected pixels on both sides of the strip borders are united with a concurrent union-find.
+     * The result doesn't depend on the number of strips.
+     *
+     * @param imageData    binary image or binarized grayscale image
+     * @param connectivity 4 or 8
+     * @param labels       output: label of each pixel in raster order, 0 for background, 1..n for the regions,
+     *                     numbered in raster order of their first pixel
+     * @return number of regions n
+     */
+    public static int label(ImageData imageData, int connectivity, int[] labels) {
+        assert connectivity == 4 || connectivity == 8 : "connectivity must be 4 or 8";
+        assert labels.length >= imageData.width * imageData.height;
 
-                    m++;
+        final int w = imageData.width, h = imageData.height;
+        final int nStrips = Math.max(1, Math.min(Parallel.getParallelism() * 4, h / MinStripHeight));
+        final int[][] stripParents = new int[nStrips][];
+
+        // first pass: provisional labels per strip, connected labels within a strip are united
+        Parallel.For(0, nStrips, s -> {
+            stripParents[s] = labelRows(imageData, connectivity, labels, stripStart(s, nStrips, h), stripStart(s + 1, nStrips, h));
+        });
+
+        // global provisional labels: labels of strip s are offset by the number of labels of the strips before s
+        final int[] offsets = new int[nStrips + 1];
+        for (int s = 0; s < nStrips; s++) offsets[s + 1] = offsets[s] + stripParents[s].length - 1;
+
+        final int n = offsets[nStrips];
+        final AtomicIntegerArray parent = new AtomicIntegerArray(n + 1);
+        Parallel.For(0, nStrips, s -> {
+            final int[] p = stripParents[s];
+            for (int l = 1; l < p.length; l++) parent.set(offsets[s] + l, offsets[s] + p[l]);
+        });
+
+        // unite the labels of connected pixels on both sides of each strip border
+        Parallel.For(1, nStrips, s -> {
+            final int v = stripStart(s, nStrips, h), i0 = v * w;
+
+            for (int u = 0; u < w; u++) {
+                final int l = labels[i0 + u];
+
+                if (l == 0) continue;
+                for (int du = (connectivity == 8) ? -1 : 0; du <= ((connectivity == 8) ? 1 : 0); du++) {
+                    if (u + du < 0 || u + du >= w) continue;
+
+                    final int up = labels[i0 - w + u + du];
+                    if (up != 0) union(parent, offsets[s] + l, offsets[s - 1] + up);
                 }
             }
+        });
+
+        // final labels: roots are the smallest labels of their sets, hence roots are numbered in raster order
+        final int[] finalLabels = new int[n + 1];
+        int count = 0;
+        for (int l = 1; l <= n; l++) {
+            final int root = find(parent, l);
+
+            finalLabels[l] = (root == l) ? ++count : finalLabels[root];
         }
 
-        // Background has to be white -> 255 in grayscale
-        for (int v = 0; v < imageData.height; v++) {
-            for (int u = 0; u < imageData.width; u++) {
-                if (!visited[u][v]) {
-                    imageData.setPixel(u, v, 255);
+        // second pass
+        Parallel.For(0, nStrips, s -> {
+            final int end = stripStart(s + 1, nStrips, h) * w;
+
+            for (int i = stripStart(s, nStrips, h) * w; i < end; i++) {
+                if (labels[i] != 0) labels[i] = finalLabels[offsets[s] + labels[i]];
+            }
+        });
+        return count;
+    }
+
+    private static int stripStart(int s, int nStrips, int h) {
+        return (int) ((long) s * h / nStrips);
+    }
+
+    /**
+     * First pass of the labeling of the rows [v0, v1): the rows above v0 are ignored
+     *
+     * @return parent array of the provisional labels 1..n of length n + 1, parent[0] is unused
+     */
+    private static int[] labelRows(ImageData imageData, int connectivity, int[] labels, int v0, int v1) {
+        final int w = imageData.width;
+        final Gray8Raster raster = (imageData.depth == 8) ? new Gray8Raster(imageData) : null;
+        final int[] row = new int[w];
+        int[] parent = new int[Math.max(16, w * (v1 - v0) / 16)];
+        int n = 0; // number of provisional labels
+
+        for (int v = v0; v < v1; v++) {
+            if (raster != null) raster.getRow(v, row);
+            else imageData.getPixels(0, v, w, row, 0);
+
+            final int i0 = v * w;
+            for (int u = 0; u < w; u++) {
+                final int i = i0 + u;
+
+                if (row[u] != s_foreground) {
+                    labels[i] = 0;
+                    continue;
+                }
+
+                // already labeled neighbours: left, up, and up-left, up-right for 8-connectivity
+                int l = (u > 0) ? labels[i - 1] : 0;
+                if (v > v0) {
+                    final int up = labels[i - w];
+
+                    if (up != 0) l = (l == 0) ? up : union(parent, l, up);
+                    if (connectivity == 8 && up == 0) {
+                        // up-left and up-right are only disconnected from each other if up is background
+                        final int ul = (u > 0) ? labels[i - w - 1] : 0;
+                        final int ur = (u < w - 1) ? labels[i - w + 1] : 0;
+
+                        if (ul != 0) l = (l == 0) ? ul : union(parent, l, ul);
+                        if (ur != 0) l = (l == 0) ? ur : union(parent, l, ur);
+                    }
+                }
+                if (l == 0) {
+                    // new provisional label
+                    if (++n == parent.length) parent = Arrays.copyOf(parent, 2 * parent.length);
+                    parent[n] = n;
+                    l = n;
                 }
+                labels[i] = l;
+            }
+        }
+        return Arrays.copyOf(parent, n + 1);
+    }
+
+    /**
+     * Unites the sets of a and b: the larger root is linked to the smaller root
+     *
+     * @return root of the united set
+     */
+    private static int union(int[] parent, int a, int b) {
+        final int ra = find(parent, a), rb = find(parent, b);
+
+        if (ra < rb) {
+            parent[rb] = ra;
+            return ra;
+        } else {
+            parent[ra] = rb;
+            return rb;
+        }
+    }
+
+    /**
+     * Finds the root with path halving
+     */
+    private static int find(int[] parent, int a) {
+        while (parent[a] != a) {
+            parent[a] = parent[parent[a]];
+            a = parent[a];
+        }
+        return a;
+    }
+
+    /**
+     * Concurrent union: the larger root is linked to the smaller root with compare-and-set,
+     * hence roots remain the smallest labels of their sets
+     */
+    private static void union(AtomicIntegerArray parent, int a, int b) {
+        while (true) {
+            int ra = find(parent, a), rb = find(parent, b);
+
+            if (ra == rb) return;
+            if (ra < rb) {
+                final int t = ra;
+                ra = rb;
+                rb = t;
             }
+            if (parent.compareAndSet(ra, ra, rb)) return;
         }
+    }
 
-        return m - 2;   // -2 not counting background and 'default' foreground
+    /**
+     * Concurrent find with path halving: a parent is only replaced by one of its ancestors
+     */
+    private static int find(AtomicIntegerArray parent, int a) {
+        int p;
+
+        while ((p = parent.get(a)) != a) {
+            final int gp = parent.get(p);
+
+            parent.compareAndSet(a, p, gp);
+            a = gp;
+        }
+        return a;
+    }
+
+    /**
+     * Fills holes: background regions that don't touch the image border become foreground
+     *
+     * @param imageData input: binarized grayscale image with 0 and 1 values, output: border-connected background
+     *                  pixels are 255, all other pixels are foreground
+     */
+    public static void fillHoles(ImageData imageData) {
+        final int w = imageData.width, h = imageData.height;
+        final Gray8Raster raster = new Gray8Raster(imageData);
+        final ImageData background = (ImageData) imageData.clone();
+        final Gray8Raster bg = new Gray8Raster(background);
+        final int[] labels = new int[w * h];
+
+        // label the 4-connected background regions
+        Parallel.For(0, h, v -> {
+            for (int u = 0; u < w; u++) {
+                bg.m_data[bg.row(v) + u] = (byte) ((raster.m_data[raster.row(v) + u] == s_background) ? s_foreground : s_background);
+            }
+        });
+        final int n = label(background, 4, labels);
+
+        // regions touching the border
+        final boolean[] outside = new boolean[n + 1];
+        for (int u = 0; u < w; u++) {
+            outside[labels[u]] = true;
+            outside[labels[(h - 1) * w + u]] = true;
+        }
+        for (int v = 0; v < h; v++) {
+            outside[labels[v * w]] = true;
+            outside[labels[v * w + w - 1]] = true;
+        }
+
+        Parallel.For(0, h, v -> {
+            final int row = raster.row(v);
+
+            for (int u = 0; u < w; u++) {
+                final int l = labels[v * w + u];
+                if (l != 0) raster.m_data[row + u] = (byte) (outside[l] ? 255 : s_foreground);
+            }
+        });
     }
 
     /**
@@ -124,17 +335,56 @@ public class FloodFilling implements IImageProcessor {
         }
 
 
-        for (int v = 0; v < inData.height; v++) {
+        final Gray8Raster in = new Gray8Raster(inData);
+        final Rgb24Raster out = new Rgb24Raster(outData);
+
+        Parallel.For(0, inData.height, v -> {
+            final int inRow = in.row(v);
+
             for (int u = 0; u < inData.width; u++) {
-                int value = inData.getPixel(u, v);
+                int value = in.m_data[inRow + u] & 0xFF;
                 if (value != 255) {  // all non-Background pixels will be colored
-                    outData.setPixel(u, v, colors[value].getRGB());
+                    out.set(u, v, colors[value].getRGB());
                 } else {
-                    outData.setPixel(u, v, Color.WHITE.getRGB());
+                    out.set(u, v, Color.WHITE.getRGB());
                 }
             }
+        });
+
+        return outData;
+    }
+
+    /**
+     * False color presentation of a label buffer
+     *
+     * @param labels label buffer (see label)
+     * @param width  image width
+     * @param height image height
+     * @param n      number of labels
+     * @return RGB image with white background
+     */
+    public static ImageData falseColor(int[] labels, int width, int height, int n) {
+        ImageData outData = ImageProcessing.createImage(width, height, Picsi.IMAGE_TYPE_RGB);
+
+        Random random = new Random();
+        int[] colors = new int[n + 1];
+        colors[0] = Color.WHITE.getRGB();    // background
+
+        for (int i = 1; i <= n; i++) {
+            colors[i] = new Color(
+                    random.nextInt(256),
+                    random.nextInt(256),
+                    random.nextInt(256)).getRGB();
         }
 
+        final Rgb24Raster out = new Rgb24Raster(outData);
+
+        Parallel.For(0, height, v -> {
+            for (int u = 0; u < width; u++) {
+                out.set(u, v, colors[labels[v * width + u]]);
+            }
+        });
+
         return outData;
     }
 }
@@ -1,81 +1,198 @@
 package imageprocessing;
 
-import gui.OptionPane;
 import main.Picsi;
 import org.eclipse.swt.graphics.ImageData;
+import utils.Gray32Raster;
+import utils.Gray8Raster;
 import utils.Parallel;
 
-public class GaussianFilter implements IImageProcessor {
+/**
+ * Gaussian blur
+ * <p>
+ * Two separable implementations are available: a FIR filter with a truncated kernel of 5*sigma taps, whose cost
+ * grows linearly with sigma, and the recursive (IIR) filter of Young and van Vliet, whose cost per pixel is
+ * independent of sigma. Both filters run horizontally over the rows and vertically as horizontal run over the
+ * rows of the transposed image. Each color channel is filtered separately.
+ */
+public class GaussianFilter implements IParameterizedProcessor {
+    public static final int FIR = 0, RECURSIVE = 1; // filter methods
+
+    /**
+     * Filter of a single channel row
+     */
+    private interface RowFilter {
+        /**
+         * @param x input row
+         * @param y output row of the same length
+         */
+        void run(float[] x, float[] y);
+    }
+
     @Override
     public boolean isEnabled(int imageType) {
         return (imageType == Picsi.IMAGE_TYPE_RGBA || imageType == Picsi.IMAGE_TYPE_RGB || imageType == Picsi.IMAGE_TYPE_GRAY || imageType == Picsi.IMAGE_TYPE_GRAY32);
     }
 
     @Override
-    public ImageData run(ImageData inData, int imageType) {
-        int sigma = OptionPane.showIntegerDialog("Sigma (min. 1)?", 1);
-        if (sigma < 1) sigma = 1;
-
-        return gaussian(sigma, inData);
+    public Parameters createParameters() {
+        return new Parameters()
+                .addChoice("method", "Filter method", FIR, "FIR", "Recursive")
+                .addFloat("sigma", "Sigma (min. 0.5)?", 1, 0.5f, 1000);
     }
 
-    public static ImageData gaussian(int sigma, ImageData in) {
-        ImageData intermediate = (ImageData) in.clone();
-        ImageData out = (ImageData) in.clone();
+    @Override
+    public ImageData run(ImageData inData, int imageType, Parameters params) {
+        final float sigma = params.getFloat("sigma");
+
+        if (params.getChoice("method") == RECURSIVE) {
+            return recursiveGaussian(sigma, inData);
+        } else {
+            return gaussian(sigma, inData);
+        }
+    }
 
+    /**
+     * FIR Gaussian filter with a kernel of 5*sigma taps
+     *
+     * @param sigma standard deviation >= 0.5
+     * @param in    input image
+     * @return filtered image
+     */
+    public static ImageData gaussian(float sigma, ImageData in) {
         // create gaussian 1D-filter
-        float[] filter = createGaussianMatrix(sigma);
-        int center = (int) Math.ceil(filter.length / 2f);
+        final float[] filter = createGaussianMatrix(sigma);
+        final int center = filter.length / 2;
 
-        // Horizontal run of image
-        Parallel.For(0, intermediate.height, v -> {
-            for (int u = 0; u < intermediate.width; u++) {
+        return separable(in, (x, y) -> {
+            for (int u = 0; u < x.length; u++) {
                 // calculate gaussian-sum for each pixel
                 float sum = 0f;
                 for (int i = 0; i < filter.length; i++) {
                     int offset = i - center;
                     // Edge-cases: u + offset < 0 || u + offset >= width
-                    if (u + offset < 0 || u + offset >= in.width) {
-                        sum += in.getPixel(u, v) * filter[i];
+                    if (u + offset < 0 || u + offset >= x.length) {
+                        sum += x[u] * filter[i];
                     } else {
-                        sum += in.getPixel(u + offset, v) * filter[i];
+                        sum += x[u + offset] * filter[i];
                     }
                 }
+                y[u] = sum;
+            }
+        });
+    }
 
-                sum = ImageProcessing.clamp8(sum);
-                intermediate.setPixel(u, v, (int) sum);
+    /**
+     * Recursive Gaussian filter of Young and van Vliet with the pole placement of
+     * van Vliet, Young and Verbeek (ICPR 1998), which yields the requested sigma also for small sigma.
+     * A causal and an anti-causal third order recursion per row, hence the cost doesn't depend on sigma.
+     * Outside the image the border values are continued.
+     *
+     * @param sigma standard deviation >= 0.5
+     * @param in    input image
+     * @return filtered image
+     */
+    public static ImageData recursiveGaussian(float sigma, ImageData in) {
+        assert sigma >= 0.5f : "sigma must be at least 0.5: " + sigma;
+
+        final double m0 = 1.16680, m1 = 1.10783, m2 = 1.40586; // poles of the normalized filter
+        final double q = 1.31564 * (Math.sqrt(1 + 0.490811 * sigma * sigma) - 1);
+        final double scale = (m0 + q) * (m1 * m1 + m2 * m2 + 2 * m1 * q + q * q);
+        final double a1 = q * (2 * m0 * m1 + m1 * m1 + m2 * m2 + (2 * m0 + 4 * m1) * q + 3 * q * q) / scale;
+        final double a2 = -q * q * (m0 + 2 * m1 + 3 * q) / scale;
+        final double a3 = q * q * q / scale;
+        final double b = 1 - (a1 + a2 + a3); // normalization: a constant row stays constant
+
+        return separable(in, (x, y) -> {
+            final int n = x.length;
+
+            // causal run: the state before the first pixel is the steady state of a constant continuation
+            double w1 = x[0], w2 = w1, w3 = w1;
+            for (int u = 0; u < n; u++) {
+                final double w = b * x[u] + a1 * w1 + a2 * w2 + a3 * w3;
+                y[u] = (float) w;
+                w3 = w2;
+                w2 = w1;
+                w1 = w;
+            }
+
+            // anti-causal run on the result of the causal run
+            w1 = w2 = w3 = y[n - 1];
+            for (int u = n - 1; u >= 0; u--) {
+                final double w = b * y[u] + a1 * w1 + a2 * w2 + a3 * w3;
+                y[u] = (float) w;
+                w3 = w2;
+                w2 = w1;
+                w1 = w;
             }
         });
+    }
 
-        // Vertical run of image (using intermediate out-pixel-values from horizontal run)
-        Parallel.For(0, intermediate.width, u -> {
-            for (int v = 0; v < intermediate.height; v++) {
-                float sum = 0;
-                for (int i = 0; i < filter.length; i++) {
-                    int offset = i - center;
+    /**
+     * Horizontal run of image, then vertical run as horizontal run of the transposed intermediate image:
+     * both runs read and write rows and stay within the cache
+     *
+     * @param in     input image
+     * @param filter 1D filter
+     * @return filtered image
+     */
+    private static ImageData separable(ImageData in, RowFilter filter) {
+        ImageData intermediate = ImageProcessing.transpose(filterRows(in, filter));
+
+        return ImageProcessing.transpose(filterRows(intermediate, filter));
+    }
 
-                    // Edge-cases: v + offset < 0 || v + offset >= height
-                    if (v + offset < 0 || v + offset >= intermediate.height) {
-                        sum += intermediate.getPixel(u, v) * filter[i];
-                    } else {
-                        sum += intermediate.getPixel(u, v + offset) * filter[i];
-                    }
+    /**
+     * Filters each channel of each row of the image.
+     *
+     * @param in     input image
+     * @param filter 1D filter
+     * @return filtered image
+     */
+    private static ImageData filterRows(ImageData in, RowFilter filter) {
+        ImageData out = (ImageData) in.clone();
+        final Gray8Raster inRaster = (in.depth == 8) ? new Gray8Raster(in) : null;
+        final Gray8Raster outRaster = (in.depth == 8) ? new Gray8Raster(out) : null;
+        final Gray32Raster inRaster32 = (in.depth == 32) ? new Gray32Raster(in) : null;
+        final Gray32Raster outRaster32 = (in.depth == 32) ? new Gray32Raster(out) : null;
+        final int[] masks = ImageProcessing.channelMasks(in);
+
+        Parallel.For(0, in.height, v -> {
+            final int[] row = new int[in.width];
+            final int[] result = new int[in.width];
+            final float[] x = new float[in.width];
+            final float[] y = new float[in.width];
+
+            if (inRaster != null) inRaster.getRow(v, row);
+            else if (inRaster32 != null) inRaster32.getRow(v, row);
+            else in.getPixels(0, v, in.width, row, 0);
+            for (final int mask : masks) {
+                final int shift = Integer.numberOfTrailingZeros(mask);
+                final long max = (mask & 0xFFFFFFFFL) >>> shift;
+
+                for (int u = 0; u < in.width; u++) {
+                    x[u] = ((row[u] & mask) & 0xFFFFFFFFL) >>> shift;
+                }
+                filter.run(x, y);
+                for (int u = 0; u < in.width; u++) {
+                    final float d = y[u];
+                    final long c = (d < 0) ? 0 : (d > max) ? max : Math.round((double) d);
+                    result[u] |= (int) (c << shift);
                 }
-
-                sum = ImageProcessing.clamp8(sum);
-                out.setPixel(u, v, (int) sum);
             }
+            if (outRaster != null) outRaster.setRow(v, result);
+            else if (outRaster32 != null) outRaster32.setRow(v, result);
+            else out.setPixels(0, v, in.width, result, 0);
         });
-
         return out;
     }
 
     // Create gaussian-filter-matrix
-    private static float[] createGaussianMatrix(int sigma) {
+    private static float[] createGaussianMatrix(float sigma) {
         int size = (int) Math.ceil(5 * sigma);
         if (size % 2 == 0) size++;
 
-        int center = (int) Math.ceil(size / 2f);
+        // symmetric kernel: the center tap weights the current pixel
+        int center = size / 2;
 
         float[] gaussFilter = new float[size];
         float sum = 0;
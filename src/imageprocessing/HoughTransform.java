@@ -1,94 +1,780 @@
 package imageprocessing;
 
-import org.eclipse.swt.SWT;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.eclipse.swt.graphics.ImageData;
 
 import main.Picsi;
+import utils.Binary1Raster;
+import utils.Gray8Raster;
 import utils.Parallel;
+import utils.Rgb24Raster;
+import utils.TopK;
 
 /**
  * Hough Transform
+ * <p>
+ * Each foreground (black) pixel of a binary image votes for all lines (rho, theta) through it, where
+ * (u - cx)*cos(theta) + (v - cy)*sin(theta) = rho and (cx, cy) is the image center.
+ * The cosine and sine of all angles are precomputed. Each worker thread votes into its own accumulator,
+ * and the accumulators are added at the end, hence no votes get lost.
+ * The strongest lines are the local maxima of the accumulator (non-maximum suppression).
+ * <p>
+ * Gradient voting: edge pixels are pixels with a large gradient magnitude (see EdgeDetector.gradients).
+ * The normal of a line through an edge pixel is about the gradient direction, hence an edge pixel only votes
+ * for the angles within a small window around its gradient direction.
+ * Circles are found with the same accumulators: an edge pixel votes for the centers at distance r in
+ * gradient and in opposite direction for each radius r. Each radius has its own accumulator slice,
+ * and the radii are processed in parallel.
  * @author Christoph Stamm
  *
  */
-public class HoughTransform implements IImageProcessor {
+public class HoughTransform implements IParameterizedProcessor {
+	public static final int LINES = 0, CIRCLES = 1;				// shapes
+	public static final int STANDARD = 0, GRADIENT = 1;			// voting methods
+	public static final int PARAMETER_SPACE = 0, DETECTION = 1;
+
+	private static final int MaxArrayLength = Integer.MAX_VALUE - 8;
+	private static final long MaxCircleCells = 1L << 26;	// cells of the circle parameter space processed at once (256 MB)
+	private static final long MaxLineCells = 1L << 26;		// cells of all per-thread line accumulators together (256 MB)
+
+	/**
+	 * Line in Hesse normal form relative to the image center
+	 */
+	public static class Line {
+		public final double m_rho;		// distance to the image center in pixels
+		public final double m_theta;	// angle of the normal in radians [0, PI)
+		public final int m_votes;
+
+		public Line(double rho, double theta, int votes) {
+			m_rho = rho;
+			m_theta = theta;
+			m_votes = votes;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("rho=%.1f, theta=%.1f°, votes=%d", m_rho, Math.toDegrees(m_theta), m_votes);
+		}
+	}
+
+	/**
+	 * Circle with center (m_u, m_v)
+	 */
+	public static class Circle {
+		public final int m_u, m_v, m_radius;
+		public final int m_votes;
+
+		public Circle(int u, int v, int radius, int votes) {
+			m_u = u;
+			m_v = v;
+			m_radius = radius;
+			m_votes = votes;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("center=(%d,%d), radius=%d, votes=%d", m_u, m_v, m_radius, m_votes);
+		}
+	}
+
+	/**
+	 * Vote counts of a two-dimensional parameter space with m_height rows and m_width columns
+	 */
+	public static class Accumulator {
+		public final int m_width, m_height;
+		public final int[] m_votes;		// row-major
+
+		public Accumulator(int width, int height) {
+			m_width = width;
+			m_height = height;
+			m_votes = new int[width*height];
+		}
+
+		public int get(int x, int y) {
+			return m_votes[y*m_width + x];
+		}
+
+		/**
+		 * Adds the votes of another accumulator of the same size
+		 * @param votes
+		 */
+		public void add(int[] votes) {
+			for (int i = 0; i < m_votes.length; i++) m_votes[i] += votes[i];
+		}
+
+		public int max() {
+			int max = 0;
+			for (int v : m_votes) if (v > max) max = v;
+			return max;
+		}
+
+		/**
+		 * Returns the indices of the k strongest local maxima in descending order of their votes.
+		 * A cell is a local maximum if it has at least minVotes votes and no cell within the square neighborhood
+		 * of the given radius has more votes. Of equal neighboring cells only the first in raster order is taken.
+		 * @param k maximum number of peaks
+		 * @param radius radius of the neighborhood
+		 * @param minVotes minimum number of votes
+		 * @return indices into m_votes
+		 */
+		public int[] peaks(int k, int radius, int minVotes) {
+			return peaks(k, radius, minVotes, 0, m_height);
+		}
+
+		/**
+		 * Returns the indices of the k strongest local maxima in the rows [y0, y1), see peaks(k, radius, minVotes)
+		 * @param k maximum number of peaks
+		 * @param radius radius of the neighborhood
+		 * @param minVotes minimum number of votes
+		 * @param y0 first row
+		 * @param y1 end of rows (exclusive)
+		 * @return indices into m_votes
+		 */
+		public int[] peaks(int k, int radius, int minVotes, int y0, int y1) {
+			// of equal votes the smaller index ranks higher
+			return TopK.collect(y0, y1, k, (y, heap) -> {
+				for (int x = 0; x < m_width; x++) {
+					final int i = y*m_width + x;
+
+					if (m_votes[i] >= minVotes && m_votes[i] > 0 && isLocalMaximum(x, y, radius)) heap.add(m_votes[i], i);
+				}
+			}).sortedPayloads();
+		}
+
+		/**
+		 * Returns true if no cell within the square neighborhood has more votes
+		 * and no equal cell precedes cell (x, y) in raster order
+		 */
+		protected boolean isLocalMaximum(int x, int y, int radius) {
+			final int i = y*m_width + x;
+			final int val = m_votes[i];
+
+			for (int y2 = y - radius; y2 <= y + radius; y2++) {
+				for (int x2 = x - radius; x2 <= x + radius; x2++) {
+					final int j = neighbor(x2, y2);
+
+					if (j >= 0 && (m_votes[j] > val || (m_votes[j] == val && j < i))) return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Returns the index of cell (x, y) or -1 if it is outside of the parameter space
+		 * @param x
+		 * @param y
+		 * @return index into m_votes
+		 */
+		protected int neighbor(int x, int y) {
+			return (x < 0 || x >= m_width || y < 0 || y >= m_height) ? -1 : y*m_width + x;
+		}
+	}
+
+	/**
+	 * Parameter space of lines: rows are distances rho, columns are angles theta
+	 */
+	public static class LineSpace extends Accumulator {
+		public final double m_dRho, m_dTheta;	// resolution in pixels and radians
+		public final double m_cx, m_cy;			// image center
+
+		public final double[] m_cos, m_sin;		// lookup tables in accumulator rows per pixel
+
+		/**
+		 * Creates the parameter space of all lines of an image
+		 * @param width image width
+		 * @param height image height
+		 * @param nRho number of distances
+		 * @param nTheta number of angles in [0, PI)
+		 */
+		public LineSpace(int width, int height, int nRho, int nTheta) {
+			super(nTheta, nRho);
+			m_cx = width/2;
+			m_cy = height/2;
+			m_dRho = 2*Math.ceil(Math.hypot(m_cx, m_cy))/nRho;
+			m_dTheta = Math.PI/nTheta;
+			m_cos = new double[nTheta];
+			m_sin = new double[nTheta];
+			for (int t = 0; t < nTheta; t++) {
+				m_cos[t] = Math.cos(theta(t))/m_dRho;
+				m_sin[t] = Math.sin(theta(t))/m_dRho;
+			}
+		}
+
+		public double rho(int r) {
+			return (r - m_height/2 + 0.5)*m_dRho;
+		}
+
+		public double theta(int t) {
+			return t*m_dTheta;
+		}
+
+		public Line line(int index) {
+			return new Line(rho(index/m_width), theta(index%m_width), m_votes[index]);
+		}
+
+		/**
+		 * The angles wrap around: line (rho, theta + PI) is line (-rho, theta)
+		 */
+		@Override
+		protected int neighbor(int x, int y) {
+			if (x < 0 || x >= m_width) {
+				x = (x < 0) ? x + m_width : x - m_width;
+				y = m_height - 1 - y;
+			}
+			return super.neighbor(x, y);
+		}
+	}
+
+	/**
+	 * Parameter space of circles: one slice of the image size per radius, the slices are stacked vertically
+	 */
+	public static class CircleSpace extends Accumulator {
+		public final int m_imageHeight;
+		public final int m_minRadius, m_nRadii;
+
+		/**
+		 * Creates the parameter space of all circles with radii in [minRadius, maxRadius]
+		 * @throws IllegalArgumentException if the parameter space exceeds the maximum array size
+		 */
+		public CircleSpace(int width, int height, int minRadius, int maxRadius) {
+			super(width, rows(width, height, maxRadius - minRadius + 1));
+			m_imageHeight = height;
+			m_minRadius = minRadius;
+			m_nRadii = maxRadius - minRadius + 1;
+		}
+
+		public Circle circle(int index) {
+			final int y = index/m_width;
+
+			return new Circle(index%m_width, y%m_imageHeight, m_minRadius + y/m_imageHeight, m_votes[index]);
+		}
+
+		/**
+		 * Returns the maximum votes of each center over all radii
+		 * @return accumulator of the image size
+		 */
+		public Accumulator projection() {
+			final Accumulator acc = new Accumulator(m_width, m_imageHeight);
+
+			project(acc, 0, m_nRadii);
+			return acc;
+		}
+
+		/**
+		 * Raises the votes of each center in acc to the maximum votes of the slices [s0, s1)
+		 * @param acc accumulator of the image size
+		 * @param s0 first slice
+		 * @param s1 end of slices (exclusive)
+		 */
+		public void project(Accumulator acc, int s0, int s1) {
+			final int size = acc.m_votes.length;
+
+			Parallel.For(0, m_imageHeight, v -> {
+				for (int i = v*m_width; i < (v + 1)*m_width; i++) {
+					for (int s = s0; s < s1; s++) acc.m_votes[i] = Math.max(acc.m_votes[i], m_votes[s*size + i]);
+				}
+			});
+		}
+
+		private static int rows(int width, int height, int nRadii) {
+			final long cells = (long)width*height*nRadii;
+
+			if (nRadii <= 0 || cells > MaxArrayLength) {
+				throw new IllegalArgumentException("circle parameter space too large: " + width + "x" + height + " pixels, " + nRadii + " radii");
+			}
+			return height*nRadii;
+		}
+
+		/**
+		 * Neighborhood over centers and radii
+		 */
+		@Override
+		protected boolean isLocalMaximum(int x, int y, int radius) {
+			final int i = y*m_width + x;
+			final int val = m_votes[i];
+			final int s = y/m_imageHeight, v = y%m_imageHeight;
+
+			for (int s2 = Math.max(0, s - radius); s2 <= Math.min(m_nRadii - 1, s + radius); s2++) {
+				for (int v2 = Math.max(0, v - radius); v2 <= Math.min(m_imageHeight - 1, v + radius); v2++) {
+					final int row = (s2*m_imageHeight + v2)*m_width;
+
+					for (int x2 = Math.max(0, x - radius); x2 <= Math.min(m_width - 1, x + radius); x2++) {
+						final int j = row + x2;
+
+						if (m_votes[j] > val || (m_votes[j] == val && j < i)) return false;
+					}
+				}
+			}
+			return true;
+		}
+	}
+
 	@Override
 	public boolean isEnabled(int imageType) {
-		return imageType == Picsi.IMAGE_TYPE_BINARY;
+		return imageType == Picsi.IMAGE_TYPE_BINARY || imageType == Picsi.IMAGE_TYPE_GRAY;
 	}
 
 	@Override
-	public ImageData run(ImageData inData, int imageType) {
-		return showParamSpace(rhoThetaTransform(inData));
+	public Parameters createParameters() {
+		return new Parameters()
+			.addChoice("shape", "Shape", LINES, "Lines", "Circles")
+			.addChoice("method", "Voting", STANDARD, "Standard", "Gradient")
+			.addInteger("angles", "Number of angles", 180, 2, 3600)
+			.addInteger("distances", "Number of distances", 180, 2, 10000)
+			.addFloat("threshold", "Edge threshold (gradient magnitude)", 32, 0, 255)
+			.addInteger("window", "Angular window of gradient voting (degrees)", 4, 0, 90)
+			.addInteger("minRadius", "Minimum circle radius", 10, 1, 5000)
+			.addInteger("maxRadius", "Maximum circle radius", 50, 1, 5000)
+			.addChoice("output", "Output", PARAMETER_SPACE, "Parameter Space", "Detection")
+			.addInteger("count", "Number of lines or circles", 10, 1, 1000)
+			.addInteger("suppression", "Radius of non-maximum suppression", 3, 0, 100);
 	}
 
-	private static int[][] rhoThetaTransform(ImageData inData) {
-		final int tMax = 180;
-		final int rMax = 180;
-		final int rMaxD2 = rMax/2;
-		final int bg = 0;
-		final int wD2 = inData.width/2;
-		final int hD2 = inData.height/2;
-		final double dTheta = Math.PI/tMax;
-		final double dRho = Math.ceil(Math.hypot(wD2, hD2))/rMaxD2;
-		int[][] paramSpace = new int[rMax][tMax];
+	@Override
+	public ImageData run(ImageData inData, int imageType, Parameters params) {
+		final int w = inData.width, h = inData.height;
+		final boolean gradient = params.getChoice("shape") == CIRCLES || params.getChoice("method") == GRADIENT || imageType != Picsi.IMAGE_TYPE_BINARY;
+		final float[] gx = (gradient) ? new float[w*h] : null;
+		final float[] gy = (gradient) ? new float[w*h] : null;
+
+		if (gradient) EdgeDetector.gradients(inData, gx, gy);
+
+		if (params.getChoice("shape") == CIRCLES) {
+			final int minRadius = params.getInteger("minRadius");
+			final int maxRadius = Math.max(minRadius, params.getInteger("maxRadius"));
+			final float threshold = params.getFloat("threshold");
+
+			if (params.getChoice("output") == DETECTION) {
+				return drawCircles(inData, circles(gx, gy, w, h, threshold, minRadius, maxRadius, params.getInteger("count"), params.getInteger("suppression"), 1));
+			} else {
+				return showParamSpace(circleProjection(gx, gy, w, h, threshold, minRadius, maxRadius));
+			}
+		} else {
+			final int nRho = params.getInteger("distances"), nTheta = params.getInteger("angles");
+			final LineSpace space;
 
-		Parallel.For(0, inData.height, v -> {
-			int v_r = v - wD2;
+			if (!gradient) {
+				space = rhoThetaTransform(inData, nRho, nTheta);
+			} else {
+				// standard voting of edge pixels of gray images: all angles
+				final int window = (params.getChoice("method") == GRADIENT) ? (int)Math.ceil(params.getInteger("window")*nTheta/180.0) : nTheta;
+				space = gradientTransform(gx, gy, w, h, nRho, nTheta, params.getFloat("threshold"), window);
+			}
+
+			if (params.getChoice("output") == DETECTION) {
+				final List<Line> lines = lines(space, params.getInteger("count"), params.getInteger("suppression"), 1);
+
+				return drawLines(inData, lines);
+			} else {
+				return showParamSpace(space);
+			}
+		}
+	}
+
+	/**
+	 * Returns the strongest lines of a binary image
+	 * @param inData binary image, black pixels vote
+	 * @param nRho number of distances
+	 * @param nTheta number of angles in [0, PI)
+	 * @param k maximum number of lines
+	 * @param radius radius of the non-maximum suppression in accumulator cells
+	 * @return lines in descending order of their votes
+	 */
+	public static List<Line> lines(ImageData inData, int nRho, int nTheta, int k, int radius) {
+		return lines(rhoThetaTransform(inData, nRho, nTheta), k, radius, 1);
+	}
+
+	/**
+	 * Returns the strongest lines of a parameter space
+	 * @param space
+	 * @param k maximum number of lines
+	 * @param radius radius of the non-maximum suppression in accumulator cells
+	 * @param minVotes minimum number of votes of a line
+	 * @return lines in descending order of their votes
+	 */
+	public static List<Line> lines(LineSpace space, int k, int radius, int minVotes) {
+		final int[] peaks = space.peaks(k, radius, minVotes);
+		final List<Line> lines = new ArrayList<>(peaks.length);
+
+		for (int i : peaks) lines.add(space.line(i));
+		return lines;
+	}
+
+	/**
+	 * Line Hough transform with per-thread accumulators (see vote)
+	 * @param inData binary image, black pixels vote
+	 * @param nRho number of distances
+	 * @param nTheta number of angles in [0, PI)
+	 * @return parameter space
+	 */
+	public static LineSpace rhoThetaTransform(ImageData inData, int nRho, int nTheta) {
+		final LineSpace space = new LineSpace(inData.width, inData.height, nRho, nTheta);
+		final double cx = space.m_cx, cy = space.m_cy;
+		final double[] cos = space.m_cos, sin = space.m_sin;
+		final Binary1Raster in = new Binary1Raster(inData);
+		final double rCenter = nRho/2;
+
+		vote(space, inData.height, (v, votes) -> {
+			final double v_r = v - cy;
+			final int row = in.row(v);
+			double[] rowRho = null;
 
 			for (int u = 0; u < inData.width; u++) {
-				if (inData.getPixel(u, v) != 0)
+				if ((in.m_data[row + (u >> 3)] & in.mask(u)) == 0) // background (white)
 					continue;
 
-				int u_r = u - wD2;
+				if (rowRho == null) {
+					// row dependent part of rho
+					rowRho = new double[nTheta];
+					for (int t = 0; t < nTheta; t++) rowRho[t] = v_r*sin[t] + rCenter;
+				}
+
+				final double u_r = u - cx;
 
-				// from 0 to PI, each degree should be calculated (theta)
 				// Formula: x*cos(θ) + y*sin(θ) = r
-				for (int t = 0; t < tMax; t++) {
-					double theta = t * dTheta;
-					double rho = ((u_r * Math.cos(theta) + v_r * Math.sin(theta)) / dRho) + rMaxD2;
-					if (0 <= rho && rho < rMax) {
-						paramSpace[(int) rho][t]++;
+				for (int t = 0; t < nTheta; t++) {
+					final double rho = u_r*cos[t] + rowRho[t];
+
+					if (0 <= rho && rho < nRho) {
+						votes[(int)rho*nTheta + t]++;
 					}
 				}
 			}
 		});
+		return space;
+	}
+
+	/**
+	 * Line Hough transform with gradient voting and per-thread accumulators (see vote)
+	 * @param gx horizontal derivative (see EdgeDetector.gradients)
+	 * @param gy vertical derivative
+	 * @param width image width
+	 * @param height image height
+	 * @param nRho number of distances
+	 * @param nTheta number of angles in [0, PI)
+	 * @param threshold minimum gradient magnitude of edge pixels
+	 * @param window an edge pixel votes for the angles t0 - window, ..., t0 + window around its gradient angle t0;
+	 * all angles if 2*window + 1 >= nTheta
+	 * @return parameter space
+	 */
+	public static LineSpace gradientTransform(float[] gx, float[] gy, int width, int height, int nRho, int nTheta, float threshold, int window) {
+		final LineSpace space = new LineSpace(width, height, nRho, nTheta);
+		final double[] cos = space.m_cos, sin = space.m_sin;
+		final double rCenter = nRho/2;
+		final float t2 = threshold*threshold;
+		final boolean all = 2*window + 1 >= nTheta;
+
+		vote(space, height, (v, votes) -> {
+			final double v_r = v - space.m_cy;
+
+			for (int u = 0; u < width; u++) {
+				final int i = v*width + u;
+				final float x = gx[i], y = gy[i];
+
+				if (x*x + y*y < t2 || (x == 0 && y == 0)) continue;
+
+				final double u_r = u - space.m_cx;
+				final int t0, t1;
+
+				if (all) {
+					t0 = 0;
+					t1 = nTheta - 1;
+				} else {
+					// normal angle in [0, PI]
+					double phi = Math.atan2(y, x);
+					if (phi < 0) phi += Math.PI;
+
+					final int tc = (int)Math.round(phi/space.m_dTheta);
+					t0 = tc - window;
+					t1 = tc + window;
+				}
+				for (int t = t0; t <= t1; t++) {
+					final int tw = (t < 0) ? t + nTheta : (t >= nTheta) ? t - nTheta : t;
+					final double rho = u_r*cos[tw] + v_r*sin[tw] + rCenter;
+
+					if (0 <= rho && rho < nRho) {
+						votes[(int)rho*nTheta + tw]++;
+					}
+				}
+			}
+		});
+		return space;
+	}
+
+	/**
+	 * Lets all rows vote into per-thread accumulators and adds them to the parameter space.
+	 * The per-thread accumulators have at most MaxLineCells cells together: large parameter spaces are voted
+	 * with fewer accumulators, each of them for a contiguous block of rows, and a parameter space larger than
+	 * MaxLineCells/2 gets the votes of all rows directly.
+	 * @param space parameter space
+	 * @param height number of rows
+	 * @param body votes of row v into the given accumulator
+	 */
+	private static void vote(LineSpace space, int height, Parallel.RedLoopBody<int[]> body) {
+		final int cells = space.m_votes.length;
+		final int parallelism = Parallel.getParallelism();
+		final int copies = (int)Math.min(parallelism, MaxLineCells/Math.max(1, cells));
+
+		if (copies >= parallelism) {
+			Parallel.For(0, height, () -> new int[cells], body, votes -> space.add(votes));
+		} else if (copies > 1) {
+			Parallel.For(0, copies, () -> new int[cells], (c, votes) -> {
+				final int v1 = (int)((long)(c + 1)*height/copies);
+
+				for (int v = (int)((long)c*height/copies); v < v1; v++) body.run(v, votes);
+			}, votes -> space.add(votes));
+		} else {
+			for (int v = 0; v < height; v++) body.run(v, space.m_votes);
+		}
+	}
+
+	/**
+	 * Circle Hough transform with gradient voting. Each radius has its own accumulator slice,
+	 * hence the radii are processed in parallel without locking.
+	 * @param gx horizontal derivative (see EdgeDetector.gradients)
+	 * @param gy vertical derivative
+	 * @param width image width
+	 * @param height image height
+	 * @param threshold minimum gradient magnitude of edge pixels
+	 * @param minRadius
+	 * @param maxRadius
+	 * @return parameter space
+	 */
+	public static CircleSpace circleTransform(float[] gx, float[] gy, int width, int height, float threshold, int minRadius, int maxRadius) {
+		final CircleSpace space = new CircleSpace(width, height, minRadius, maxRadius);
+		final float t2 = threshold*threshold;
+		final int size = width*height;
+
+		// edge pixels and their unit gradients
+		int n = 0;
+		for (int i = 0; i < size; i++) {
+			final float x = gx[i], y = gy[i];
+			if (x*x + y*y >= t2 && (x != 0 || y != 0)) n++;
+		}
+		final int[] pos = new int[n];
+		final float[] cos = new float[n], sin = new float[n];
+		n = 0;
+		for (int i = 0; i < size; i++) {
+			final float x = gx[i], y = gy[i], m2 = x*x + y*y;
+
+			if (m2 >= t2 && (x != 0 || y != 0)) {
+				final float m = (float)Math.sqrt(m2);
+
+				pos[n] = i;
+				cos[n] = x/m;
+				sin[n] = y/m;
+				n++;
+			}
+		}
+		final int nEdges = n;
+
+		Parallel.For(0, space.m_nRadii, s -> {
+			final int r = minRadius + s;
+			final int base = s*size;
+
+			for (int e = 0; e < nEdges; e++) {
+				final int u = pos[e]%width, v = pos[e]/width;
+				final int du = Math.round(r*cos[e]), dv = Math.round(r*sin[e]);
+
+				// the center lies on the inner or outer side of the edge
+				int a = u + du, b = v + dv;
+				if (0 <= a && a < width && 0 <= b && b < height) space.m_votes[base + b*width + a]++;
+				a = u - du;
+				b = v - dv;
+				if (0 <= a && a < width && 0 <= b && b < height) space.m_votes[base + b*width + a]++;
+			}
+		});
+		return space;
+	}
+
+	/**
+	 * Returns the strongest circles of a parameter space
+	 * @param space
+	 * @param k maximum number of circles
+	 * @param radius radius of the non-maximum suppression in pixels and radii
+	 * @param minVotes minimum number of votes of a circle
+	 * @return circles in descending order of their votes
+	 */
+	public static List<Circle> circles(CircleSpace space, int k, int radius, int minVotes) {
+		final int[] peaks = space.peaks(k, radius, minVotes);
+		final List<Circle> circles = new ArrayList<>(peaks.length);
 
-		return paramSpace;
+		for (int i : peaks) circles.add(space.circle(i));
+		return circles;
 	}
-	
-	private static ImageData showParamSpace(int[][] paramSpace) {
+
+	/**
+	 * Returns the strongest circles without holding the whole parameter space in memory.
+	 * The radii are processed in chunks of limited size. Each chunk is extended by the suppression radius on both
+	 * sides, hence the result is the same as of circles(circleTransform(...), k, radius, minVotes).
+	 * @param gx horizontal derivative (see EdgeDetector.gradients)
+	 * @param gy vertical derivative
+	 * @param width image width
+	 * @param height image height
+	 * @param threshold minimum gradient magnitude of edge pixels
+	 * @param minRadius
+	 * @param maxRadius
+	 * @param k maximum number of circles
+	 * @param radius radius of the non-maximum suppression in pixels and radii
+	 * @param minVotes minimum number of votes of a circle
+	 * @return circles in descending order of their votes
+	 */
+	public static List<Circle> circles(float[] gx, float[] gy, int width, int height, float threshold, int minRadius, int maxRadius, int k, int radius, int minVotes) {
+		final List<Circle> circles = new ArrayList<>();
+
+		circleChunks(gx, gy, width, height, threshold, minRadius, maxRadius, radius, (space, s0, s1) -> {
+			for (int i : space.peaks(k, radius, minVotes, s0*height, s1*height)) circles.add(space.circle(i));
+		});
+
+		// descending votes, of equal votes the first in the parameter space (radius, v, u)
+		circles.sort((a, b) -> (a.m_votes != b.m_votes) ? Integer.compare(b.m_votes, a.m_votes)
+			: (a.m_radius != b.m_radius) ? Integer.compare(a.m_radius, b.m_radius)
+			: (a.m_v != b.m_v) ? Integer.compare(a.m_v, b.m_v) : Integer.compare(a.m_u, b.m_u));
+		return new ArrayList<>(circles.subList(0, Math.min(k, circles.size())));
+	}
+
+	/**
+	 * Returns the maximum votes of each center over all radii, see CircleSpace.projection.
+	 * The radii are processed in chunks of limited size.
+	 * @return accumulator of the image size
+	 */
+	public static Accumulator circleProjection(float[] gx, float[] gy, int width, int height, float threshold, int minRadius, int maxRadius) {
+		final Accumulator acc = new Accumulator(width, height);
+
+		circleChunks(gx, gy, width, height, threshold, minRadius, maxRadius, 0, (space, s0, s1) -> space.project(acc, s0, s1));
+		return acc;
+	}
+
+	private static interface ChunkBody {
+		/**
+		 * @param space parameter space of the chunk including the halo
+		 * @param s0 first slice of the chunk without halo
+		 * @param s1 end of slices of the chunk without halo (exclusive)
+		 */
+		void accept(CircleSpace space, int s0, int s1);
+	}
+
+	/**
+	 * Computes the circle parameter space in chunks of consecutive radii. The chunks have at most MaxCircleCells cells,
+	 * unless a single radius with its halo is larger.
+	 * @param halo number of additional radii on both sides of a chunk
+	 */
+	private static void circleChunks(float[] gx, float[] gy, int width, int height, float threshold, int minRadius, int maxRadius, int halo, ChunkBody body) {
+		final long sliceCells = Math.max(1, (long)width*height);
+		final int chunk = (int)Math.max(1, Math.min(maxRadius - minRadius + 1, MaxCircleCells/sliceCells - 2L*halo));
+
+		for (int r0 = minRadius; r0 <= maxRadius; r0 += chunk) {
+			final int r1 = Math.min(maxRadius, r0 + chunk - 1);
+			final int lo = Math.max(minRadius, r0 - halo), hi = Math.min(maxRadius, r1 + halo);
+
+			body.accept(circleTransform(gx, gy, width, height, threshold, lo, hi), r0 - lo, r1 - lo + 1);
+		}
+	}
+
+	private static ImageData showParamSpace(Accumulator space) {
 		final int size = 3*180;
-		final int h = paramSpace.length;
-		final int w = paramSpace[0].length;
-		
+		final int h = space.m_height;
+		final int w = space.m_width;
+		final int maxVal = Math.max(1, space.max());
+
 		ImageData outData = ImageProcessing.createImage(size, size, Picsi.IMAGE_TYPE_GRAY);
-		
-		// compute maximum value in paramSpace
-		int[] max = new int[] {0};
-		Parallel.For(0, h, 
-			// creator
-			() -> new int[] {0},
-			// loop body
-			(v, m) -> {
-				for(int u = 0; u < w; u++) {
-					if (paramSpace[v][u] > m[0]) m[0] = paramSpace[v][u];
-				}
-			},
-			// reducer
-			m -> {
-				if (m[0] > max[0]) max[0] = m[0];
-			}
-		);
-		
-		final int maxVal = max[0];
-		
+		final Gray8Raster out = new Gray8Raster(outData);
+
 		Parallel.For(0, outData.height, v -> {
+			final int row = out.row(v);
+			final int offset = (v*h/size)*w;
+
 			for(int u = 0; u < outData.width; u++) {
-				outData.setPixel(u, v, 255 - paramSpace[v*h/size][u*w/size]*255/maxVal);
+				out.m_data[row + u] = (byte)(255 - space.m_votes[offset + u*w/size]*255/maxVal);
 			}
 		});
 		return outData;
 	}
-	
+
+	/**
+	 * Draws lines in red into an RGB copy of a binary or gray-value image
+	 * @param inData binary or gray-value image
+	 * @param lines
+	 * @return RGB image
+	 */
+	public static ImageData drawLines(ImageData inData, List<Line> lines) {
+		final int w = inData.width, h = inData.height;
+		final double cx = w/2, cy = h/2;
+		final ImageData outData = toRGB(inData);
+		final Rgb24Raster out = new Rgb24Raster(outData);
+		final int red = 0xFF0000;
+
+		for (Line l : lines) {
+			final double c = Math.cos(l.m_theta), s = Math.sin(l.m_theta);
+
+			if (Math.abs(s) >= Math.abs(c)) {
+				// flat line: one pixel per column
+				for (int u = 0; u < w; u++) {
+					final int v = (int)Math.round((l.m_rho - (u - cx)*c)/s + cy);
+					if (0 <= v && v < h) out.set(u, v, red);
+				}
+			} else {
+				// steep line: one pixel per row
+				for (int v = 0; v < h; v++) {
+					final int u = (int)Math.round((l.m_rho - (v - cy)*s)/c + cx);
+					if (0 <= u && u < w) out.set(u, v, red);
+				}
+			}
+		}
+		return outData;
+	}
+
+	/**
+	 * Draws circles in red into an RGB copy of a binary or gray-value image
+	 * @param inData binary or gray-value image
+	 * @param circles
+	 * @return RGB image
+	 */
+	public static ImageData drawCircles(ImageData inData, List<Circle> circles) {
+		final int w = inData.width, h = inData.height;
+		final ImageData outData = toRGB(inData);
+		final Rgb24Raster out = new Rgb24Raster(outData);
+		final int red = 0xFF0000;
+
+		for (Circle c : circles) {
+			final int n = Math.max(8, (int)Math.ceil(2*Math.PI*c.m_radius));
+
+			for (int i = 0; i < n; i++) {
+				final double phi = 2*Math.PI*i/n;
+				final int u = (int)Math.round(c.m_u + c.m_radius*Math.cos(phi));
+				final int v = (int)Math.round(c.m_v + c.m_radius*Math.sin(phi));
+
+				if (0 <= u && u < w && 0 <= v && v < h) out.set(u, v, red);
+			}
+			out.set(c.m_u, c.m_v, red);
+		}
+		return outData;
+	}
+
+	private static ImageData toRGB(ImageData inData) {
+		final int w = inData.width, h = inData.height;
+		final ImageData outData = ImageProcessing.createImage(w, h, Picsi.IMAGE_TYPE_RGB);
+		final Rgb24Raster out = new Rgb24Raster(outData);
+
+		if (inData.depth == 1) {
+			final Binary1Raster in = new Binary1Raster(inData);
+
+			Parallel.For(0, h, v -> {
+				for (int u = 0; u < w; u++) {
+					out.set(u, v, (in.get(u, v) == 0) ? 0xFFFFFF : 0);
+				}
+			});
+		} else {
+			final Gray8Raster in = new Gray8Raster(inData);
+
+			Parallel.For(0, h, v -> {
+				for (int u = 0; u < w; u++) {
+					out.set(u, v, in.get(u, v)*0x010101);
+				}
+			});
+		}
+		return outData;
+	}
 }
@@ -0,0 +1,38 @@
+package imageprocessing;
+
+import org.eclipse.swt.graphics.ImageData;
+
+import gui.OptionPane;
+
+/**
+ * Image processing interface of processors with typed parameters.
+ * The parameterized run method never opens dialogs, hence it can be used in batch jobs and benchmarks.
+ *
+ */
+public interface IParameterizedProcessor extends IImageProcessor {
+	/**
+	 * Creates a new parameter set with default values
+	 * @return parameter set
+	 */
+	public Parameters createParameters();
+
+	/**
+	 * Runs the image processing routine without user interaction
+	 * @param inData input image data
+	 * @param imageType one of the image types define in Picsi.IMAGE_TYPE_XXX
+	 * @param params parameter set created by createParameters
+	 * @return output image or null if the image processing cannot produce a useful output
+	 */
+	public ImageData run(final ImageData inData, int imageType, Parameters params);
+
+	/**
+	 * Asks the user for the parameters and runs the image processing routine
+	 */
+	@Override
+	public default ImageData run(final ImageData inData, int imageType) {
+		Parameters params = createParameters();
+
+		if (!OptionPane.showParameterDialog(params)) return null;
+		return run(inData, imageType, params);
+	}
+}
@@ -7,6 +7,8 @@ import org.eclipse.swt.graphics.ImageData;
 import org.eclipse.swt.graphics.PaletteData;
 import org.eclipse.swt.graphics.RGB;
 
+import utils.Gray32Raster;
+import utils.Gray8Raster;
 import utils.Parallel;
 
 /**
@@ -116,6 +118,69 @@ public class ImageProcessing {
 		return imageData;
 	}
 
+	/**
+	 * Returns the bit masks of the channels of an image: one mask for grayscale images and three masks for RGB images.
+	 * The alpha channel isn't part of the pixel values.
+	 * @param imageData
+	 * @return channel masks
+	 */
+	public static int[] channelMasks(ImageData imageData) {
+		if (!imageData.palette.isDirect) return new int[] { (1 << imageData.depth) - 1 }; // grayscale palette
+		
+		final PaletteData palette = imageData.palette;
+		final int r = palette.redMask, g = palette.greenMask, b = palette.blueMask;
+		
+		if (r == g && g == b) return new int[] { r };
+		return new int[] { r, g, b };
+	}
+
+	/**
+	 * Copies a channel of the image into a byte array of size width*height
+	 * @param imageData image
+	 * @param mask channel mask of at most 8 bits (see channelMasks)
+	 * @return channel
+	 */
+	public static byte[] getChannel(ImageData imageData, int mask) {
+		final int w = imageData.width, shift = Integer.numberOfTrailingZeros(mask);
+		final byte[] channel = new byte[w*imageData.height];
+		final Gray8Raster raster = (imageData.depth == 8) ? new Gray8Raster(imageData) : null;
+
+		Parallel.For(0, imageData.height, v -> {
+			if (raster != null) {
+				System.arraycopy(raster.m_data, raster.row(v), channel, v*w, w);
+			} else {
+				final int[] row = new int[w];
+
+				imageData.getPixels(0, v, w, row, 0);
+				for (int u = 0; u < w; u++) channel[v*w + u] = (byte)((row[u] & mask) >>> shift);
+			}
+		});
+		return channel;
+	}
+
+	/**
+	 * Replaces a channel of the image
+	 * @param imageData image
+	 * @param mask channel mask of at most 8 bits (see channelMasks)
+	 * @param channel channel of size width*height
+	 */
+	public static void setChannel(ImageData imageData, int mask, byte[] channel) {
+		final int w = imageData.width, shift = Integer.numberOfTrailingZeros(mask);
+		final Gray8Raster raster = (imageData.depth == 8) ? new Gray8Raster(imageData) : null;
+
+		Parallel.For(0, imageData.height, v -> {
+			if (raster != null) {
+				System.arraycopy(channel, v*w, raster.m_data, raster.row(v), w);
+			} else {
+				final int[] row = new int[w];
+
+				imageData.getPixels(0, v, w, row, 0);
+				for (int u = 0; u < w; u++) row[u] = (row[u] & ~mask) | (((channel[v*w + u] & 0xFF) << shift) & mask);
+				imageData.setPixels(0, v, w, row, 0);
+			}
+		});
+	}
+
 	/**
 	 * Compute PSNR of two images of the same image type
 	 * @param inData1
@@ -182,14 +247,23 @@ public class ImageProcessing {
 		assert 0 < nClasses && nClasses <= maxClasses : "wrong number of classes: " + nClasses;
 		
 		int[] histo = new int[nClasses];
+		final Gray8Raster raster = (inData.depth == 8) ? new Gray8Raster(inData) : null;
 		
 		Parallel.For(0, inData.height,
 			// creator
 			() -> new int[nClasses],
 			// loop body
 			(v, h) -> {
-				for (int u=0; u < inData.width; u++) {
-					h[inData.getPixel(u, v)*nClasses/maxClasses]++;
+				if (raster != null) {
+					final int row = raster.row(v);
+					
+					for (int u=0; u < inData.width; u++) {
+						h[(raster.m_data[row + u] & 0xFF)*nClasses/maxClasses]++;
+					}
+				} else {
+					for (int u=0; u < inData.width; u++) {
+						h[inData.getPixel(u, v)*nClasses/maxClasses]++;
+					}
 				}
 			},
 			// reducer
@@ -256,6 +330,52 @@ public class ImageProcessing {
 		return outData;
 	}
 	
+	/**
+	 * Transposes an image: the pixel (u,v) of inData becomes pixel (v,u) of the output image.
+	 * Vertical passes of separable filters can be run as cache friendly horizontal passes on the transposed image.
+	 * @param inData
+	 * @return transposed image of size inData.height x inData.width
+	 */
+	public static ImageData transpose(ImageData inData) {
+		final ImageData outData = createImage(inData.height, inData.width, inData);
+		final boolean alpha = inData.getTransparencyType() == SWT.TRANSPARENCY_ALPHA;
+		
+		if (inData.depth == 8 && !alpha) {
+			final byte[] src = inData.data, dst = outData.data;
+			final int inBPL = inData.bytesPerLine, outBPL = outData.bytesPerLine;
+			
+			Parallel.forTiles(inData.width, inData.height, 1, (x0, y0, x1, y1) -> {
+				for (int v = y0; v < y1; v++) {
+					final int row = v*inBPL;
+					
+					for (int u = x0; u < x1; u++) {
+						dst[u*outBPL + v] = src[row + u];
+					}
+				}
+			});
+		} else if (inData.depth == 32 && !alpha) {
+			final Gray32Raster in = new Gray32Raster(inData), out = new Gray32Raster(outData);
+			
+			Parallel.forTiles(inData.width, inData.height, 4, (x0, y0, x1, y1) -> {
+				for (int v = y0; v < y1; v++) {
+					for (int u = x0; u < x1; u++) {
+						out.set(v, u, in.get(u, v));
+					}
+				}
+			});
+		} else {
+			Parallel.forTiles(inData.width, inData.height, Math.max(1, inData.depth/8), (x0, y0, x1, y1) -> {
+				for (int v = y0; v < y1; v++) {
+					for (int u = x0; u < x1; u++) {
+						outData.setPixel(v, u, inData.getPixel(u, v));
+						if (alpha) outData.setAlpha(v, u, inData.getAlpha(u, v));
+					}
+				}
+			});
+		}
+		return outData;
+	}
+	
 	/**
 	 * Inserts image insData into image data at position (x,y)
 	 */
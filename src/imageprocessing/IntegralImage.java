@@ -0,0 +1,87 @@
+package imageprocessing;
+
+import org.eclipse.swt.graphics.ImageData;
+import utils.Gray8Raster;
+import utils.Parallel;
+
+/**
+ * Summed-area tables of the gray values and of the squared gray values of an 8 bit image
+ * <p>
+ * The sum and the sum of squares of any rectangle are computed from four table entries, hence the mean and the
+ * variance of a window cost O(1) regardless of its size. Entry (x, y) contains the sum of all pixels (u, v) with
+ * u < x and v < y, so the tables have (width + 1)*(height + 1) entries.
+ */
+public class IntegralImage {
+    public final int m_width, m_height;     // image size
+    public final long[] m_sum;              // sums of gray values
+    public final long[] m_sumSq;            // sums of squared gray values
+
+    /**
+     * Computes the tables of a gray-value image
+     *
+     * @param inData 8 bit gray-value image
+     */
+    public IntegralImage(ImageData inData) {
+        final Gray8Raster in = new Gray8Raster(inData);
+        final int w = inData.width, h = inData.height, stride = w + 1;
+
+        m_width = w;
+        m_height = h;
+        m_sum = new long[stride * (h + 1)];
+        m_sumSq = new long[stride * (h + 1)];
+
+        // prefix sums of the rows in parallel, then prefix sums of the columns in parallel
+        Parallel.For(0, h, v -> {
+            final int row = in.row(v), i0 = (v + 1) * stride;
+            long s = 0, sq = 0;
+
+            for (int u = 0; u < w; u++) {
+                final int p = in.m_data[row + u] & 0xFF;
+
+                s += p;
+                sq += p * p;
+                m_sum[i0 + u + 1] = s;
+                m_sumSq[i0 + u + 1] = sq;
+            }
+        });
+        Parallel.For(1, w + 1, u -> {
+            for (int i = 2 * stride + u; i < m_sum.length; i += stride) {
+                m_sum[i] += m_sum[i - stride];
+                m_sumSq[i] += m_sumSq[i - stride];
+            }
+        });
+    }
+
+    /**
+     * Returns the sum of the gray values of a rectangle
+     *
+     * @param x left border
+     * @param y top border
+     * @param w width
+     * @param h height
+     * @return sum of gray values
+     */
+    public long sum(int x, int y, int w, int h) {
+        return rect(m_sum, x, y, w, h);
+    }
+
+    /**
+     * Returns the sum of the squared gray values of a rectangle
+     *
+     * @param x left border
+     * @param y top border
+     * @param w width
+     * @param h height
+     * @return sum of squared gray values
+     */
+    public long sumSq(int x, int y, int w, int h) {
+        return rect(m_sumSq, x, y, w, h);
+    }
+
+    private long rect(long[] table, int x, int y, int w, int h) {
+        final int stride = m_width + 1;
+        final int i0 = y * stride + x, i1 = (y + h) * stride + x;
+
+        return table[i1 + w] - table[i1] - table[i0 + w] + table[i0];
+    }
+}
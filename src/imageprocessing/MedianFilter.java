@@ -1,91 +1,232 @@
 package imageprocessing;
 
-import gui.OptionPane;
 import main.Picsi;
 import org.eclipse.swt.graphics.ImageData;
 import utils.Parallel;
 
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.List;
+import java.util.Arrays;
+
+/**
+ * 2D median filter with a square or circular window
+ * <p>
+ * Square windows use the constant time algorithm of Perreault and Hébert (IEEE TIP 16(9), 2007): one histogram per
+ * image column is slid down, and the window histogram is slid right by adding and removing column histograms.
+ * Window histograms are split into 16 coarse and 256 fine bins, and fine bins are only updated where the median is
+ * searched. Circular windows use the sliding histogram of Huang with cost proportional to the window radius.
+ * Each channel is filtered separately. Outside the image the border pixels are continued.
+ * The image is divided into horizontal strips that are filtered in parallel.
+ */
+public class MedianFilter implements IParameterizedProcessor {
+    public static final int SQUARE = 0, CIRCLE = 1; // window shapes
+
+    private static final int MinStripHeight = 32;
 
-public class MedianFilter implements IImageProcessor {
     @Override
     public boolean isEnabled(int imageType) {
-        return (imageType == Picsi.IMAGE_TYPE_RGBA || imageType == Picsi.IMAGE_TYPE_RGB || imageType == Picsi.IMAGE_TYPE_GRAY || imageType == Picsi.IMAGE_TYPE_GRAY32);
+        return (imageType == Picsi.IMAGE_TYPE_RGBA || imageType == Picsi.IMAGE_TYPE_RGB || imageType == Picsi.IMAGE_TYPE_GRAY);
     }
 
     @Override
-    public ImageData run(ImageData inData, int imageType) {
-        int filterSize = OptionPane.showIntegerDialog("Filtergrösse (min. 3)?", 3);
-        if (filterSize < 3) filterSize = 3;
+    public Parameters createParameters() {
+        return new Parameters()
+                .addInteger("size", "Filtergrösse (min. 3)?", 3, 3, 255)
+                .addChoice("shape", "Filterform", SQUARE, "Square", "Circle");
+    }
 
-        return medianFilter(filterSize, inData);
+    @Override
+    public ImageData run(ImageData inData, int imageType, Parameters params) {
+        return medianFilter(params.getInteger("size"), params.getChoice("shape"), inData);
     }
 
+    /**
+     * Median filter with a square window
+     *
+     * @param filterSize side length of the window, even sizes are increased by one
+     * @param in         input image
+     * @return filtered image
+     */
     public static ImageData medianFilter(int filterSize, ImageData in) {
-        ImageData intermediate = (ImageData) in.clone();
-        ImageData out = (ImageData) in.clone();
-
-        // create 1D-median filter
-        int[] filter = createMedianFilter(filterSize);
-        int filterCenter = (int) Math.ceil(filter.length / 2f);
-
-        // Horizontal run of image
-        Parallel.For(0, intermediate.height, v -> {
-            for (int u = 0; u < intermediate.width; u++) {
-                List<Float> values = new ArrayList<>();
-                for (int i = 0; i < filter.length; i++) {
-                    int offset = i - filterCenter;
-
-                    for (int j = 0; j < filter[i]; j++) {   // for weighted filter
-                        if (u + offset < 0 || u + offset >= in.width) {
-                            values.add((float) in.getPixel(u, v));
-                        } else {
-                            values.add((float) in.getPixel(u + offset, v));
-                        }
-                    }
+        return medianFilter(filterSize, SQUARE, in);
+    }
+
+    /**
+     * Median filter
+     *
+     * @param filterSize side length or diameter of the window, even sizes are increased by one
+     * @param shape      SQUARE or CIRCLE
+     * @param in         input image
+     * @return filtered image
+     */
+    public static ImageData medianFilter(int filterSize, int shape, ImageData in) {
+        final int r = filterSize / 2;
+        final int w = in.width, h = in.height;
+        final ImageData out = (ImageData) in.clone();
+        final int stripHeight = Math.max(Math.max(MinStripHeight, 2 * r + 1), (h + Parallel.getParallelism() * 4 - 1) / (Parallel.getParallelism() * 4));
+        final int nStrips = (h + stripHeight - 1) / stripHeight;
+
+        for (final int mask : ImageProcessing.channelMasks(in)) {
+            final byte[] src = ImageProcessing.getChannel(in, mask);
+            final byte[] dst = new byte[src.length];
+
+            Parallel.For(0, nStrips, s -> {
+                final int y0 = s * stripHeight, y1 = Math.min(h, y0 + stripHeight);
+
+                if (shape == CIRCLE) {
+                    medianCircle(src, dst, w, h, r, y0, y1);
+                } else {
+                    medianSquare(src, dst, w, h, r, y0, y1);
                 }
+            });
+            ImageProcessing.setChannel(out, mask, dst);
+        }
+        return out;
+    }
+
+    /**
+     * Perreault-Hébert median of the rows [y0, y1) with a square window of side length 2r+1.
+     *
+     * @param src input channel
+     * @param dst output channel
+     * @param w   width
+     * @param h   height
+     * @param r   window radius
+     * @param y0  first row
+     * @param y1  row after the last row
+     */
+    private static void medianSquare(byte[] src, byte[] dst, int w, int h, int r, int y0, int y1) {
+        final int half = (2 * r + 1) * (2 * r + 1) / 2;
+        final char[] colFine = new char[w * 256];   // column histograms, counts <= 2r+1
+        final char[] colCoarse = new char[w * 16];
+        final int[] fine = new int[256];            // window histogram
+        final int[] coarse = new int[16];
+        final int[] lastUpdate = new int[16];       // column of the last update of each fine segment
+
+        // column histograms of the rows y0-r..y0+r
+        for (int dy = -r; dy <= r; dy++) {
+            updateColumns(src, w, clamp(y0 + dy, h), colFine, colCoarse, 1);
+        }
 
-                values.sort(Comparator.naturalOrder());
-                int value = ImageProcessing.clamp8(Math.round(values.get(values.size() / 2)));
-                intermediate.setPixel(u, v, value);
+        for (int y = y0; y < y1; y++) {
+            if (y > y0) {
+                // slide column histograms down
+                updateColumns(src, w, clamp(y - r - 1, h), colFine, colCoarse, -1);
+                updateColumns(src, w, clamp(y + r, h), colFine, colCoarse, 1);
             }
-        });
-
-        // Vertical run of image (using intermediate out-pixel-values from horizontal run)
-        Parallel.For(0, intermediate.width, u -> {
-            for (int v = 0; v < intermediate.height; v++) {
-                List<Float> values = new ArrayList<>();
-                for (int i = 0; i < filter.length; i++) {
-                    int offset = i - filterCenter;
-
-                    for (int j = 0; j < filter[i]; j++) {   // for weighted filter
-                        if (v + offset < 0 || v + offset >= in.width) {
-                            values.add((float) intermediate.getPixel(u, v));
-                        } else {
-                            values.add((float) intermediate.getPixel(u, v + offset));
-                        }
+
+            // coarse window histogram at x = 0, fine segments are outdated
+            Arrays.fill(coarse, 0);
+            for (int j = -r; j <= r; j++) {
+                final int c = clamp(j, w) * 16;
+                for (int k = 0; k < 16; k++) coarse[k] += colCoarse[c + k];
+            }
+            Arrays.fill(lastUpdate, Integer.MIN_VALUE / 2);
+
+            final int row = y * w;
+            for (int x = 0; x < w; x++) {
+                if (x > 0) {
+                    final int cAdd = clamp(x + r, w) * 16, cSub = clamp(x - r - 1, w) * 16;
+                    for (int k = 0; k < 16; k++) coarse[k] += colCoarse[cAdd + k] - colCoarse[cSub + k];
+                }
+
+                // coarse bin containing the median
+                int k = 0, sum = 0;
+                while (sum + coarse[k] <= half) sum += coarse[k++];
+
+                // bring fine segment k up to date: rebuild if sliding would be more expensive
+                final int base = k * 16;
+                if (x - lastUpdate[k] > r) {
+                    Arrays.fill(fine, base, base + 16, 0);
+                    for (int j = x - r; j <= x + r; j++) {
+                        final int c = clamp(j, w) * 256 + base;
+                        for (int i = 0; i < 16; i++) fine[base + i] += colFine[c + i];
+                    }
+                } else {
+                    for (int j = lastUpdate[k] + 1; j <= x; j++) {
+                        final int cAdd = clamp(j + r, w) * 256 + base, cSub = clamp(j - r - 1, w) * 256 + base;
+                        for (int i = 0; i < 16; i++) fine[base + i] += colFine[cAdd + i] - colFine[cSub + i];
                     }
                 }
+                lastUpdate[k] = x;
 
-                values.sort(Comparator.naturalOrder());
-                int value = ImageProcessing.clamp8(Math.round(values.get(values.size() / 2)));
-                out.setPixel(u, v, value);
+                // fine bin containing the median
+                int i = base;
+                while (sum + fine[i] <= half) sum += fine[i++];
+                dst[row + x] = (byte) i;
             }
-        });
+        }
+    }
 
-        return out;
+    /**
+     * Adds or removes a row to or from all column histograms
+     */
+    private static void updateColumns(byte[] src, int w, int y, char[] colFine, char[] colCoarse, int delta) {
+        final int row = y * w;
+
+        for (int x = 0; x < w; x++) {
+            final int v = src[row + x] & 0xFF;
+            colFine[x * 256 + v] += delta;
+            colCoarse[x * 16 + (v >> 4)] += delta;
+        }
     }
 
-    // Create median 1D-Filter
-    private static int[] createMedianFilter(int size) {
-        if (size % 2 == 0) size++;
-        int[] filter = new int[size];
-        for (int i = 0; i < size; i++) {
-            filter[i] = 1;
+    /**
+     * Huang median of the rows [y0, y1) with a circular window of radius r.
+     * The window histogram is slid right by removing the left and adding the right border pixels of the circle.
+     *
+     * @param src input channel
+     * @param dst output channel
+     * @param w   width
+     * @param h   height
+     * @param r   window radius
+     * @param y0  first row
+     * @param y1  row after the last row
+     */
+    private static void medianCircle(byte[] src, byte[] dst, int w, int h, int r, int y0, int y1) {
+        final int[] ext = new int[2 * r + 1];   // half widths of the circle rows
+        final int[] hist = new int[256];
+        final int[] rows = new int[2 * r + 1];  // offsets of the window rows
+        int n = 0;
+
+        for (int dy = -r; dy <= r; dy++) {
+            ext[dy + r] = (int) Math.sqrt(r * r - dy * dy);
+            n += 2 * ext[dy + r] + 1;
         }
+        final int half = n / 2;
+
+        for (int y = y0; y < y1; y++) {
+            // window histogram at x = 0
+            Arrays.fill(hist, 0);
+            for (int d = 0; d <= 2 * r; d++) {
+                final int row = rows[d] = clamp(y + d - r, h) * w, e = ext[d];
+                for (int dx = -e; dx <= e; dx++) hist[src[row + clamp(dx, w)] & 0xFF]++;
+            }
+
+            // m is the median and lt the number of values less than m
+            int m = 0, lt = 0;
+            while (lt + hist[m] <= half) lt += hist[m++];
+            dst[y * w] = (byte) m;
+
+            for (int x = 1; x < w; x++) {
+                for (int d = 0; d <= 2 * r; d++) {
+                    final int e = ext[d];
+                    final int vOut = src[rows[d] + Math.max(x - 1 - e, 0)] & 0xFF;
+                    final int vIn = src[rows[d] + Math.min(x + e, w - 1)] & 0xFF;
+
+                    if (vOut != vIn) {
+                        hist[vOut]--;
+                        hist[vIn]++;
+                        if (vOut < m) lt--;
+                        if (vIn < m) lt++;
+                    }
+                }
+                while (lt > half) lt -= hist[--m];
+                while (lt + hist[m] <= half) lt += hist[m++];
+                dst[y * w + x] = (byte) m;
+            }
+        }
+    }
 
-        return filter;
+    private static int clamp(int i, int size) {
+        return (i < 0) ? 0 : (i >= size) ? size - 1 : i;
     }
 }
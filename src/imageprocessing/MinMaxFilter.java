@@ -0,0 +1,290 @@
+package imageprocessing;
+
+import imageprocessing.MorphologicFilter.Segment;
+import main.Picsi;
+import org.eclipse.swt.graphics.ImageData;
+import utils.Parallel;
+
+import java.util.Arrays;
+
+/**
+ * Gray-scale morphology: minimum (erosion) and maximum (dilation) filters
+ * <p>
+ * A minimum or maximum over a horizontal or vertical line segment is computed with the algorithm of van Herk and
+ * Gil-Werman: the line is divided into blocks of the segment length, and each window is the union of the suffix of a
+ * block and the prefix of the next block. With precomputed prefixes and suffixes a window costs 3 comparisons per
+ * pixel regardless of the segment length. Rectangles and lines are separated into a horizontal and a vertical pass.
+ * Other structuring elements are decomposed into horizontal line segments (see MorphologicFilter.segments).
+ * Each channel is filtered separately. Pixels outside the image are ignored.
+ * Binary images are processed by MorphologicFilter.
+ */
+public class MinMaxFilter implements IParameterizedProcessor {
+    public static final int MINIMUM = 0, MAXIMUM = 1, OPENING = 2, CLOSING = 3; // operations
+    public static final int SQUARE = 0, DISK = 1, DIAMOND = 2, HLINE = 3, VLINE = 4; // shapes
+
+    @Override
+    public boolean isEnabled(int imageType) {
+        return imageType == Picsi.IMAGE_TYPE_RGBA || imageType == Picsi.IMAGE_TYPE_RGB || imageType == Picsi.IMAGE_TYPE_GRAY || imageType == Picsi.IMAGE_TYPE_BINARY;
+    }
+
+    @Override
+    public Parameters createParameters() {
+        return new Parameters()
+                .addChoice("operation", "Operation", MINIMUM, "Minimum", "Maximum", "Opening", "Closing")
+                .addChoice("shape", "Structure", SQUARE, "Square", "Disk", "Diamond", "Horizontal Line", "Vertical Line")
+                .addInteger("radius", "Radius", 1, 1, 1000);
+    }
+
+    @Override
+    public ImageData run(ImageData inData, int imageType, Parameters params) {
+        final int r = params.getInteger("radius");
+        final boolean[][] struct;
+        final int cx, cy;
+
+        switch (params.getChoice("shape")) {
+            default:
+            case SQUARE:
+                struct = MorphologicFilter.rectangle(2 * r + 1, 2 * r + 1);
+                cx = cy = r;
+                break;
+            case DISK:
+                struct = MorphologicFilter.disk(r);
+                cx = cy = r;
+                break;
+            case DIAMOND:
+                struct = MorphologicFilter.diamond(r);
+                cx = cy = r;
+                break;
+            case HLINE:
+                struct = MorphologicFilter.rectangle(2 * r + 1, 1);
+                cx = r;
+                cy = 0;
+                break;
+            case VLINE:
+                struct = MorphologicFilter.rectangle(1, 2 * r + 1);
+                cx = 0;
+                cy = r;
+                break;
+        }
+
+        final boolean binary = imageType == Picsi.IMAGE_TYPE_BINARY;
+
+        switch (params.getChoice("operation")) {
+            default:
+            case MINIMUM:
+                return binary ? MorphologicFilter.erosion(inData, struct, cx, cy) : min(inData, struct, cx, cy);
+            case MAXIMUM:
+                return binary ? MorphologicFilter.dilation(inData, struct, cx, cy) : max(inData, struct, cx, cy);
+            case OPENING:
+                return binary ? MorphologicFilter.opening(inData, struct, cx, cy, 1) : max(min(inData, struct, cx, cy), struct, cx, cy);
+            case CLOSING:
+                return binary ? MorphologicFilter.closing(inData, struct, cx, cy, 1) : min(max(inData, struct, cx, cy), struct, cx, cy);
+        }
+    }
+
+    /**
+     * Minimum filter (gray-scale erosion): minimum of the pixels under the true elements of the structure
+     *
+     * @param in     grayscale or RGB image
+     * @param struct all true elements belong to the structure
+     * @param cx     origin of the structure (hotspot)
+     * @param cy     origin of the structure (hotspot)
+     * @return filtered image
+     */
+    public static ImageData min(ImageData in, boolean[][] struct, int cx, int cy) {
+        return filter(in, struct, cx, cy, false);
+    }
+
+    /**
+     * Maximum filter (gray-scale dilation): maximum of the pixels under the true elements of the structure
+     * mirrored at its origin
+     *
+     * @param in     grayscale or RGB image
+     * @param struct all true elements belong to the structure
+     * @param cx     origin of the structure (hotspot)
+     * @param cy     origin of the structure (hotspot)
+     * @return filtered image
+     */
+    public static ImageData max(ImageData in, boolean[][] struct, int cx, int cy) {
+        return filter(in, struct, cx, cy, true);
+    }
+
+    private static ImageData filter(ImageData in, boolean[][] struct, int cx, int cy, boolean max) {
+        final Segment[] segments = MorphologicFilter.segments(struct);
+        final ImageData out = (ImageData) in.clone();
+
+        for (final int mask : ImageProcessing.channelMasks(in)) {
+            final byte[] src = ImageProcessing.getChannel(in, mask);
+            final byte[] dst;
+
+            if (MorphologicFilter.isRectangle(segments)) {
+                final Segment s = segments[0];
+                final int h = segments.length;
+
+                if (max) {
+                    dst = verticalRuns(horizontalRuns(src, in.width, in.height, cx - s.m_start - s.m_length + 1, s.m_length, true),
+                            in.width, in.height, cy - s.m_row - h + 1, h, true);
+                } else {
+                    dst = verticalRuns(horizontalRuns(src, in.width, in.height, s.m_start - cx, s.m_length, false),
+                            in.width, in.height, s.m_row - cy, h, false);
+                }
+            } else {
+                dst = segmentRuns(src, in.width, in.height, segments, cx, cy, max);
+            }
+            ImageProcessing.setChannel(out, mask, dst);
+        }
+        return out;
+    }
+
+    /**
+     * Combines the horizontal runs of all segments for each pixel
+     *
+     * @param src      input channel
+     * @param w        width
+     * @param h        height
+     * @param segments segments of the structure
+     * @param cx       origin of the structure (hotspot)
+     * @param cy       origin of the structure (hotspot)
+     * @param max      true: maximum, false: minimum
+     * @return output channel
+     */
+    private static byte[] segmentRuns(byte[] src, int w, int h, Segment[] segments, int cx, int cy, boolean max) {
+        final byte[] dst = new byte[w * h];
+        int maxLength = 0;
+
+        for (Segment s : segments) maxLength = Math.max(maxLength, s.m_length);
+
+        final int n = w + maxLength - 1;
+
+        Parallel.For(0, h, v -> {
+            final int[] acc = new int[w];
+            final int[] run = new int[w];
+            final int[] prefix = new int[n];
+            final int[] suffix = new int[n];
+
+            Arrays.fill(acc, identity(max));
+            for (Segment s : segments) {
+                final int v0 = (max) ? v - s.m_row + cy : v + s.m_row - cy;
+
+                if (v0 < 0 || v0 >= h) continue;
+
+                final int d = (max) ? cx - s.m_start - s.m_length + 1 : s.m_start - cx;
+
+                lineRun(src, v0 * w, w, d, s.m_length, max, prefix, suffix, run);
+                for (int u = 0; u < w; u++) acc[u] = (max) ? Math.max(acc[u], run[u]) : Math.min(acc[u], run[u]);
+            }
+            for (int u = 0; u < w; u++) dst[v * w + u] = (byte) acc[u];
+        });
+        return dst;
+    }
+
+    /**
+     * Combines the pixels u + d, ..., u + d + length - 1 of each row
+     */
+    private static byte[] horizontalRuns(byte[] src, int w, int h, int d, int length, boolean max) {
+        final byte[] dst = new byte[w * h];
+        final int n = w + length - 1;
+
+        Parallel.For(0, h, v -> {
+            final int[] run = new int[w];
+
+            lineRun(src, v * w, w, d, length, max, new int[n], new int[n], run);
+            for (int u = 0; u < w; u++) dst[v * w + u] = (byte) run[u];
+        });
+        return dst;
+    }
+
+    /**
+     * Combines the rows v + d, ..., v + d + length - 1 for each row v. The prefixes and suffixes are whole rows,
+     * hence the rows are read sequentially.
+     */
+    private static byte[] verticalRuns(byte[] src, int w, int h, int d, int length, boolean max) {
+        final int n = h + length - 1; // rows d, ..., d + n - 1 are used
+        final int nBlocks = (n + length - 1) / length;
+        final byte[] prefix = new byte[n * w];
+        final byte[] suffix = new byte[n * w];
+        final byte[] dst = new byte[w * h];
+        final byte id = (byte) identity(max);
+
+        Parallel.For(0, nBlocks, b -> {
+            final int k0 = b * length, k1 = Math.min(n, k0 + length);
+
+            for (int k = k0; k < k1; k++) {
+                final int v = d + k;
+
+                for (int u = 0; u < w; u++) {
+                    final byte x = (v < 0 || v >= h) ? id : src[v * w + u];
+                    prefix[k * w + u] = (k == k0) ? x : combine(prefix[(k - 1) * w + u], x, max);
+                }
+            }
+            for (int k = k1 - 1; k >= k0; k--) {
+                final int v = d + k;
+
+                for (int u = 0; u < w; u++) {
+                    final byte x = (v < 0 || v >= h) ? id : src[v * w + u];
+                    suffix[k * w + u] = (k == k1 - 1) ? x : combine(suffix[(k + 1) * w + u], x, max);
+                }
+            }
+        });
+        Parallel.For(0, h, v -> {
+            final int s = v * w, p = (v + length - 1) * w;
+
+            for (int u = 0; u < w; u++) dst[s + u] = combine(suffix[s + u], prefix[p + u], max);
+        });
+        return dst;
+    }
+
+    /**
+     * van Herk/Gil-Werman minimum or maximum of the values x[t + d], ..., x[t + d + length - 1] for t = 0, ..., n-1,
+     * where x[i] = src[offset + i]. Values outside [0, n) are ignored.
+     *
+     * @param src    input values
+     * @param offset index of x[0]
+     * @param n      number of values
+     * @param d      offset of the first value of a window, can be negative
+     * @param length window length > 0
+     * @param max    true: maximum, false: minimum
+     * @param prefix temporary array of length n + length - 1
+     * @param suffix temporary array of length n + length - 1
+     * @param y      output array of length n
+     */
+    private static void lineRun(byte[] src, int offset, int n, int d, int length, boolean max, int[] prefix, int[] suffix, int[] y) {
+        final int m = n + length - 1; // windows cover x[d], ..., x[d + m - 1]
+        final int id = identity(max);
+
+        // block prefixes and suffixes: 2 comparisons per value
+        for (int k0 = 0; k0 < m; k0 += length) {
+            final int k1 = Math.min(m, k0 + length);
+
+            for (int k = k0; k < k1; k++) {
+                final int i = k + d;
+                final int x = (i < 0 || i >= n) ? id : src[offset + i] & 0xFF;
+
+                prefix[k] = (k == k0) ? x : (max) ? Math.max(prefix[k - 1], x) : Math.min(prefix[k - 1], x);
+            }
+            for (int k = k1 - 1; k >= k0; k--) {
+                final int i = k + d;
+                final int x = (i < 0 || i >= n) ? id : src[offset + i] & 0xFF;
+
+                suffix[k] = (k == k1 - 1) ? x : (max) ? Math.max(suffix[k + 1], x) : Math.min(suffix[k + 1], x);
+            }
+        }
+        // window [t, t + length - 1] = suffix of a block and prefix of the next block: 1 comparison per value
+        for (int t = 0; t < n; t++) {
+            y[t] = (max) ? Math.max(suffix[t], prefix[t + length - 1]) : Math.min(suffix[t], prefix[t + length - 1]);
+        }
+    }
+
+    private static byte combine(byte a, byte b, boolean max) {
+        final int x = a & 0xFF, y = b & 0xFF;
+
+        return (byte) ((max) ? Math.max(x, y) : Math.min(x, y));
+    }
+
+    /**
+     * Value that doesn't change a minimum or maximum
+     */
+    private static int identity(boolean max) {
+        return (max) ? 0 : 255;
+    }
+}
@@ -1,18 +1,21 @@
 package imageprocessing;
 
-import gui.OptionPane;
-import imageprocessing.colors.Inverter;
+import imageprocessing.binary.BitImage;
 import main.Picsi;
-import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.ImageData;
-import utils.Parallel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * Morphologic filter and demo
+ * <p>
+ * The operations work on bit-packed images (see BitImage). Structuring elements are decomposed into horizontal line
+ * segments, hence large disks, diamonds and rectangles with radii of 100 and more pixels remain affordable.
  *
  * @author Christoph Stamm
  */
-public class MorphologicFilter implements IImageProcessor {
+public class MorphologicFilter implements IParameterizedProcessor {
     public static int s_background = 0; // white
     public static int s_foreground = 1; // black
     public static boolean[][] s_circle3 = new boolean[][]{
@@ -57,20 +60,40 @@ public class MorphologicFilter implements IImageProcessor {
     public static boolean[][] s_square4 = new boolean[][]{{true, true, true, true}, {true, true, true, true}, {true, true, true, true}, {true, true, true, true}};
     public static boolean[][] s_square5 = new boolean[][]{{true, true, true, true, true}, {true, true, true, true, true}, {true, true, true, true, true}, {true, true, true, true, true}, {true, true, true, true, true}};
 
+    /**
+     * Horizontal line segment of a structuring element: the true elements struct[m_row][m_start..m_start + m_length - 1]
+     */
+    public static class Segment {
+        public final int m_row, m_start, m_length;
+
+        public Segment(int row, int start, int length) {
+            m_row = row;
+            m_start = start;
+            m_length = length;
+        }
+    }
+
     @Override
     public boolean isEnabled(int imageType) {
         return imageType == Picsi.IMAGE_TYPE_BINARY;
     }
 
     @Override
-    public ImageData run(ImageData inData, int imageType) {
-        Object[] operations = {"Erosion", "Dilation", "Opening", "Closing", "Inner Contour", "Outer Contour"};
-        int ch = OptionPane.showOptionDialog("Morphological Operation", SWT.ICON_INFORMATION, operations, 0);
-        if (ch < 0) return null;
-
-        Object[] structure = {"None", "Dot", "Circle-3", "Circle-5", "Circle-7", "Diamond-5", "Diamond-7", "Square-2", "Square-3", "Square-4", "Square-5"};
-        int s = OptionPane.showOptionDialog("Structure (ignored with outer contour)", SWT.ICON_INFORMATION, structure, 2);
-        if (s < 0) return null;
+    public Parameters createParameters() {
+        return new Parameters()
+                .addChoice("operation", "Morphological Operation", 0, "Erosion", "Dilation", "Opening", "Closing", "Inner Contour", "Outer Contour")
+                .addChoice("structure", "Structure (ignored with outer contour)", 2, "None", "Dot", "Circle-3", "Circle-5", "Circle-7", "Diamond-5", "Diamond-7", "Square-2", "Square-3", "Square-4", "Square-5",
+                        "Disk", "Diamond", "Square", "Horizontal Line", "Vertical Line")
+                .addInteger("radius", "Radius (disk, diamond, square and lines)", 10, 1, 1000)
+                .addInteger("times", "How many times? (opening and closing)", 1, 1, 100);
+    }
+
+    @Override
+    public ImageData run(ImageData inData, int imageType, Parameters params) {
+        final int ch = params.getChoice("operation");
+        final int s = params.getChoice("structure");
+        final int multiplicity = params.getInteger("times");
+        final int r = params.getInteger("radius");
         boolean[][] struct;
         int cx, cy;
         switch (s) {
@@ -119,6 +142,28 @@ public class MorphologicFilter implements IImageProcessor {
                 struct = s_square5;
                 cx = cy = 2;
                 break;
+            case 11:
+                struct = disk(r);
+                cx = cy = r;
+                break;
+            case 12:
+                struct = diamond(r);
+                cx = cy = r;
+                break;
+            case 13:
+                struct = rectangle(2 * r + 1, 2 * r + 1);
+                cx = cy = r;
+                break;
+            case 14:
+                struct = rectangle(2 * r + 1, 1);
+                cx = r;
+                cy = 0;
+                break;
+            case 15:
+                struct = rectangle(1, 2 * r + 1);
+                cx = 0;
+                cy = r;
+                break;
         }
 
         switch (ch) {
@@ -127,13 +172,9 @@ public class MorphologicFilter implements IImageProcessor {
             case 1:
                 return dilation(inData, struct, cx, cy);
             case 2:
-                int multiplicity = OptionPane.showIntegerDialog("How many times?", 1);
-                if (multiplicity < 0) multiplicity = 1;
                 return opening(inData, struct, cx, cy, multiplicity);
             case 3:
-                int mp = OptionPane.showIntegerDialog("How many times?", 1);
-                if (mp < 0) mp = 1;
-                return closing(inData, struct, cx, cy, mp);
+                return closing(inData, struct, cx, cy, multiplicity);
             case 4:
                 return contour(inData, struct, cx, cy, true);
             case 5:
@@ -143,39 +184,114 @@ public class MorphologicFilter implements IImageProcessor {
     }
 
     /**
-     * Erosion: if the structure element is empty, then the eroded image only contains foreground pixels
+     * Disk of radius r: the disks of radius 1, 2 and 3 are s_circle3, s_circle5 and s_circle7
      *
-     * @param inData binary image or binarized grayscale image
-     * @param struct all true elements belong to the structure
-     * @param cx     origin of the structure (hotspot)
-     * @param cy     origin of the structure (hotspot)
-     * @return new eroded binary image
+     * @param r radius
+     * @return structure of size (2r+1)x(2r+1) with origin (r, r)
      */
-    public static ImageData erosion(ImageData inData, boolean[][] struct, int cx, int cy) {
-        assert inData.type == Picsi.IMAGE_TYPE_BINARY || inData.type == Picsi.IMAGE_TYPE_GRAY;
+    public static boolean[][] disk(int r) {
+        final boolean[][] struct = new boolean[2 * r + 1][2 * r + 1];
 
-        ImageData outData = (ImageData) inData.clone();
+        for (int j = 0; j <= 2 * r; j++) {
+            for (int i = 0; i <= 2 * r; i++) {
+                struct[j][i] = (i - r) * (i - r) + (j - r) * (j - r) < r * (r + 1);
+            }
+        }
+        return struct;
+    }
+
+    /**
+     * Diamond of radius r: the diamonds of radius 2 and 3 are s_diamond5 and s_diamond7
+     *
+     * @param r radius
+     * @return structure of size (2r+1)x(2r+1) with origin (r, r)
+     */
+    public static boolean[][] diamond(int r) {
+        final boolean[][] struct = new boolean[2 * r + 1][2 * r + 1];
+
+        for (int j = 0; j <= 2 * r; j++) {
+            for (int i = 0; i <= 2 * r; i++) {
+                struct[j][i] = Math.abs(i - r) + Math.abs(j - r) <= r;
+            }
+        }
+        return struct;
+    }
+
+    /**
+     * Filled rectangle, a line if width or height is 1
+     *
+     * @param width
+     * @param height
+     * @return structure of size width x height
+     */
+    public static boolean[][] rectangle(int width, int height) {
+        final boolean[][] struct = new boolean[height][width];
 
-        Parallel.For(0, outData.height, v -> {
-            for (int u = 0; u < outData.width; u++) {
-                boolean set = true;
+        for (boolean[] row : struct) Arrays.fill(row, true);
+        return struct;
+    }
 
-                for (int j = 0; set && j < struct.length; j++) {
-                    final int v0 = v + j - cy;
+    /**
+     * Decomposes a structuring element into horizontal line segments, hence the cost of an erosion or dilation
+     * grows with the number of segments instead of the number of elements. A min or max over a line segment of gray
+     * values costs a constant number of operations per pixel (van Herk/Gil-Werman, see MinMaxFilter). An AND or OR
+     * over a line segment of bit-packed binary pixels combines runs of doubling lengths and costs O(log length)
+     * operations per word of 64 pixels (see BitImage).
+     *
+     * @param struct all true elements belong to the structure
+     * @return maximal horizontal runs of true elements ordered by rows
+     */
+    public static Segment[] segments(boolean[][] struct) {
+        final ArrayList<Segment> segments = new ArrayList<>();
+
+        for (int j = 0; j < struct.length; j++) {
+            int i = 0;
 
-                    for (int i = 0; set && i < struct[j].length; i++) {
-                        final int u0 = u + i - cx;
+            while (i < struct[j].length) {
+                if (struct[j][i]) {
+                    final int start = i;
 
-                        if (struct[j][i] && (v0 < 0 || v0 >= inData.height || u0 < 0 || u0 >= inData.width || inData.getPixel(u0, v0) != s_foreground)) {
-                            set = false;
-                        }
-                    }
+                    while (i < struct[j].length && struct[j][i]) i++;
+                    segments.add(new Segment(j, start, i - start));
+                } else {
+                    i++;
                 }
-                if (set) outData.setPixel(u, v, s_foreground); // foreground
-                else outData.setPixel(u, v, s_background); // background
             }
-        });
-        return outData;
+        }
+        return segments.toArray(new Segment[segments.size()]);
+    }
+
+    /**
+     * Returns true if the segments form a filled rectangle, i.e. the structure is separable into a horizontal and a
+     * vertical line segment
+     *
+     * @param segments segments of a structure (see segments)
+     * @return true if the segments are not empty and form a filled rectangle
+     */
+    public static boolean isRectangle(Segment[] segments) {
+        if (segments.length == 0) return false;
+
+        final Segment first = segments[0];
+
+        for (int k = 1; k < segments.length; k++) {
+            final Segment s = segments[k];
+
+            if (s.m_row != first.m_row + k || s.m_start != first.m_start || s.m_length != first.m_length) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Erosion: if the structure element is empty, then the eroded image only contains foreground pixels
+     *
+     * @param inData binary image or binarized grayscale image
+     * @param struct all true elements belong to the structure
+     * @param cx     origin of the structure (hotspot)
+     * @param cy     origin of the structure (hotspot)
+     * @return new eroded binary image
+     */
+    public static ImageData erosion(ImageData inData, boolean[][] struct, int cx, int cy) {
+        return toImageData(toBitImage(inData).erode(struct, cx, cy), inData);
     }
 
     /**
@@ -188,34 +304,13 @@ public class MorphologicFilter implements IImageProcessor {
      * @return new dilated binary image
      */
     public static ImageData dilation(ImageData inData, boolean[][] struct, int cx, int cy) {
-        assert inData.type == Picsi.IMAGE_TYPE_BINARY || inData.type == Picsi.IMAGE_TYPE_GRAY;
-
-        ImageData outData = new ImageData(inData.width, inData.height, inData.depth, inData.palette); // outData is initialized with 0
-        Parallel.For(0, outData.height, v -> {
-            for (int u = 0; u < outData.width; u++) {
-                if (inData.getPixel(u, v) == s_foreground) {
-                    for (int i = 0; i < struct.length; i++) {
-                        final int u0 = u + i - cx;
-
-                        for (int j = 0; j < struct[i].length; j++) {
-                            final int v0 = v + j - cy;
-
-                            if (struct[i][j]) {
-                                outData.setPixel(u0, v0, s_foreground);
-                            }
-                        }
-                    }
-                }
-            }
-        });
-
-        return outData;
+        return toImageData(toBitImage(inData).dilate(struct, cx, cy), inData);
     }
 
     /**
-     * Opening
+     * Opening: the image is packed once and all erosions and dilations work on the packed image
      *
-     * @param inData       not an indexed-color image
+     * @param inData       binary image or binarized grayscale image
      * @param struct       all true elements belong to the structure
      * @param cx           origin of the structure (hotspot)
      * @param cy           origin of the structure (hotspot)
@@ -223,23 +318,13 @@ public class MorphologicFilter implements IImageProcessor {
      * @return new opened binary image
      */
     public static ImageData opening(ImageData inData, boolean[][] struct, int cx, int cy, int multiplicity) {
-        ImageData out = (ImageData) inData.clone();
-
-        for (int i = 0; i < multiplicity; i++) {
-            out = erosion(out, struct, cx, cy);
-        }
-
-        for (int i = 0; i < multiplicity; i++) {
-            out = dilation(out, struct, cx, cy);
-        }
-
-        return out;
+        return toImageData(toBitImage(inData).open(struct, cx, cy, multiplicity), inData);
     }
 
     /**
-     * Closing
+     * Closing: the image is packed once and all dilations and erosions work on the packed image
      *
-     * @param inData       not an indexed-color image
+     * @param inData       binary image or binarized grayscale image
      * @param struct       all true elements belong to the structure
      * @param cx           origin of the structure (hotspot)
      * @param cy           origin of the structure (hotspot)
@@ -247,59 +332,42 @@ public class MorphologicFilter implements IImageProcessor {
      * @return new closed binary image
      */
     public static ImageData closing(ImageData inData, boolean[][] struct, int cx, int cy, int multiplicity) {
-        ImageData out = (ImageData) inData.clone();
-
-        for (int i = 0; i < multiplicity; i++) {
-            out = dilation(out, struct, cx, cy);
-        }
-
-        for (int i = 0; i < multiplicity; i++) {
-            out = erosion(out, struct, cx, cy);
-        }
-
-        return out;
+        return toImageData(toBitImage(inData).close(struct, cx, cy, multiplicity), inData);
     }
 
     /**
-     * Contour
+     * Contour: inner contour = image without its erosion, outer contour = dilation without the image
      *
-     * @param inData not an indexed-color image
+     * @param inData binary image or binarized grayscale image
      * @param struct all true elements belong to the structure
      * @param cx     origin of the structure (hotspot)
      * @param cy     origin of the structure (hotspot)
      * @param inner: true = inner contour, false = outer contour
-     * @return new closed binary image
+     * @return new contour binary image
      */
     public static ImageData contour(ImageData inData, boolean[][] struct, int cx, int cy, boolean inner) {
-        ImageData out = new ImageData(inData.width, inData.height, inData.depth, inData.palette);
+        final BitImage in = toBitImage(inData);
 
         if (inner) {
-            ImageData I_dash = erosion(inData, struct, cx, cy);
-            ImageData I_dash_complement = (ImageData) I_dash.clone();
-            Inverter.invert(I_dash_complement, out.type);
-
-            Parallel.For(0, inData.height, v -> {
-                for (int u = 0; u < inData.width; u++) {
-                    if (inData.getPixel(u, v) == I_dash_complement.getPixel(u, v)) {
-                        out.setPixel(u, v, s_foreground);
-                    }
-                }
-            });
+            return toImageData(in.xor(in.erode(struct, cx, cy)), inData);
         } else {
-            ImageData I_dash = dilation(inData, struct, cx, cy);
-            ImageData I_complement = (ImageData) inData.clone();
-            Inverter.invert(I_complement, I_complement.type);
-
-            Parallel.For(0, I_complement.height, v -> {
-                for (int u = 0; u < I_complement.width; u++) {
-                    if (I_complement.getPixel(u, v) == I_dash.getPixel(u, v)) {
-                        out.setPixel(u, v, s_foreground);
-                    }
-                }
-            });
+            return toImageData(in.dilate(struct, cx, cy).xor(in), inData);
         }
+    }
 
-        return out;
+    /**
+     * Packs the foreground pixels of a binary image or a binarized grayscale image
+     */
+    private static BitImage toBitImage(ImageData inData) {
+        assert inData.depth == 1 || inData.depth == 8 : "binary or grayscale image expected";
+        return BitImage.fromImageData(inData, s_foreground);
+    }
+
+    /**
+     * Unpacks a bit image into an image of the same type as inData
+     */
+    private static ImageData toImageData(BitImage bi, ImageData inData) {
+        return bi.toImageData(inData, s_foreground, s_background);
     }
 
 }
@@ -0,0 +1,276 @@
+package imageprocessing;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Typed parameter set of an image processor.
+ * Each parameter has a name, a prompt used in dialogs, a default value and a valid range.
+ * The stable string form is a comma separated list of name=value pairs in declaration order,
+ * e.g. "method=Bilinear,scale=1.5". It is accepted by parse(String).
+ */
+public class Parameters {
+	public static enum Type { INTEGER, FLOAT, BOOLEAN, CHOICE }
+
+	private static class Parameter {
+		private final String m_name;
+		private final String m_prompt;
+		private final Type m_type;
+		private final double m_min, m_max;	// valid range of numeric values
+		private final String[] m_choices;	// names of choices
+		private double m_value;				// current value: numbers, 0/1 for booleans, index for choices
+
+		private Parameter(String name, String prompt, Type type, double value, double min, double max, String[] choices) {
+			m_name = name;
+			m_prompt = prompt;
+			m_type = type;
+			m_value = value;
+			m_min = min;
+			m_max = max;
+			m_choices = choices;
+		}
+	}
+
+	private final Map<String, Parameter> m_params = new LinkedHashMap<>();
+
+	/**
+	 * Adds an integer parameter
+	 * @param name parameter name used in the string form
+	 * @param prompt text shown in dialogs
+	 * @param value default value
+	 * @param min minimum valid value
+	 * @param max maximum valid value
+	 * @return this
+	 */
+	public Parameters addInteger(String name, String prompt, int value, int min, int max) {
+		return add(new Parameter(name, prompt, Type.INTEGER, value, min, max, null));
+	}
+
+	/**
+	 * Adds a floating point parameter
+	 * @param name parameter name used in the string form
+	 * @param prompt text shown in dialogs
+	 * @param value default value
+	 * @param min minimum valid value
+	 * @param max maximum valid value
+	 * @return this
+	 */
+	public Parameters addFloat(String name, String prompt, float value, float min, float max) {
+		return add(new Parameter(name, prompt, Type.FLOAT, value, min, max, null));
+	}
+
+	/**
+	 * Adds a boolean parameter
+	 * @param name parameter name used in the string form
+	 * @param prompt text shown in dialogs
+	 * @param value default value
+	 * @return this
+	 */
+	public Parameters addBoolean(String name, String prompt, boolean value) {
+		return add(new Parameter(name, prompt, Type.BOOLEAN, value ? 1 : 0, 0, 1, null));
+	}
+
+	/**
+	 * Adds a choice parameter
+	 * @param name parameter name used in the string form
+	 * @param prompt text shown in dialogs
+	 * @param value index of default choice
+	 * @param choices names of the choices
+	 * @return this
+	 */
+	public Parameters addChoice(String name, String prompt, int value, String... choices) {
+		assert choices.length > 0 : "no choices";
+		return add(new Parameter(name, prompt, Type.CHOICE, value, 0, choices.length - 1, choices));
+	}
+
+	private Parameters add(Parameter p) {
+		assert !m_params.containsKey(p.m_name) : "parameter " + p.m_name + " already exists";
+		assert p.m_value >= p.m_min && p.m_value <= p.m_max : "default value of " + p.m_name + " is out of range";
+		m_params.put(p.m_name, p);
+		return this;
+	}
+
+	/**
+	 * Returns the parameter names in declaration order
+	 * @return
+	 */
+	public List<String> names() {
+		return new ArrayList<>(m_params.keySet());
+	}
+
+	public Type getType(String name) {
+		return get(name).m_type;
+	}
+
+	public String getPrompt(String name) {
+		return get(name).m_prompt;
+	}
+
+	public String[] getChoices(String name) {
+		return get(name, Type.CHOICE).m_choices.clone();
+	}
+
+	public int getInteger(String name) {
+		return (int)get(name, Type.INTEGER).m_value;
+	}
+
+	public float getFloat(String name) {
+		return (float)get(name, Type.FLOAT).m_value;
+	}
+
+	public boolean getBoolean(String name) {
+		return get(name, Type.BOOLEAN).m_value != 0;
+	}
+
+	/**
+	 * Returns the index of the chosen choice
+	 * @param name
+	 * @return
+	 */
+	public int getChoice(String name) {
+		return (int)get(name, Type.CHOICE).m_value;
+	}
+
+	public Parameters setInteger(String name, int value) {
+		return setValue(get(name, Type.INTEGER), value);
+	}
+
+	public Parameters setFloat(String name, float value) {
+		return setValue(get(name, Type.FLOAT), value);
+	}
+
+	public Parameters setBoolean(String name, boolean value) {
+		return setValue(get(name, Type.BOOLEAN), value ? 1 : 0);
+	}
+
+	public Parameters setChoice(String name, int index) {
+		return setValue(get(name, Type.CHOICE), index);
+	}
+
+	/**
+	 * Sets a parameter from its string form.
+	 * Choices are given by name; case, blanks and hyphens are ignored, e.g. "circle3" selects "Circle-3".
+	 * @param name
+	 * @param value
+	 * @return this
+	 * @throws IllegalArgumentException if the parameter is unknown or the value is invalid
+	 */
+	public Parameters set(String name, String value) {
+		Parameter p = get(name);
+		value = value.trim();
+
+		try {
+			switch(p.m_type) {
+			case INTEGER:
+				return setValue(p, Integer.parseInt(value));
+			case FLOAT:
+				return setValue(p, Float.parseFloat(value));
+			case BOOLEAN:
+				if (value.equalsIgnoreCase("true")) return setValue(p, 1);
+				if (value.equalsIgnoreCase("false")) return setValue(p, 0);
+				break;
+			case CHOICE:
+				for (int i = 0; i < p.m_choices.length; i++) {
+					if (normalize(p.m_choices[i]).equals(normalize(value))) return setValue(p, i);
+				}
+				break;
+			}
+		} catch(NumberFormatException ex) {
+			// handled below
+		}
+		throw new IllegalArgumentException("invalid value " + value + " of parameter " + name);
+	}
+
+	/**
+	 * Sets all parameters contained in the string form "name=value,...".
+	 * Parameters not contained in s keep their current value.
+	 * @param s string form, may be empty
+	 * @return this
+	 * @throws IllegalArgumentException if s is malformed or contains unknown parameters or invalid values
+	 */
+	public Parameters parse(String s) {
+		for (String arg : s.split(",")) {
+			if (arg.trim().isEmpty()) continue;
+
+			int eq = arg.indexOf('=');
+			if (eq < 0) throw new IllegalArgumentException("argument " + arg.trim() + " is not of the form name=value");
+			set(arg.substring(0, eq).trim(), arg.substring(eq + 1));
+		}
+		return this;
+	}
+
+	/**
+	 * Returns a copy with the same definitions and values
+	 * @return
+	 */
+	public Parameters copy() {
+		Parameters c = new Parameters();
+		for (Parameter p : m_params.values()) {
+			c.m_params.put(p.m_name, new Parameter(p.m_name, p.m_prompt, p.m_type, p.m_value, p.m_min, p.m_max, p.m_choices));
+		}
+		return c;
+	}
+
+	/**
+	 * Returns the value of a parameter in its string form
+	 * @param name
+	 * @return
+	 */
+	public String toString(String name) {
+		Parameter p = get(name);
+
+		switch(p.m_type) {
+		case INTEGER: return String.valueOf((int)p.m_value);
+		case FLOAT: return String.valueOf((float)p.m_value);
+		case BOOLEAN: return String.valueOf(p.m_value != 0);
+		default: return p.m_choices[(int)p.m_value];
+		}
+	}
+
+	/**
+	 * Returns the stable string form "name=value,..." in declaration order
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+
+		for (String name : m_params.keySet()) {
+			if (sb.length() > 0) sb.append(',');
+			sb.append(name).append('=').append(toString(name));
+		}
+		return sb.toString();
+	}
+
+	private Parameter get(String name) {
+		Parameter p = m_params.get(name);
+		if (p == null) throw new IllegalArgumentException("unknown parameter " + name);
+		return p;
+	}
+
+	private Parameter get(String name, Type type) {
+		Parameter p = get(name);
+		if (p.m_type != type) throw new IllegalArgumentException("parameter " + name + " is not of type " + type);
+		return p;
+	}
+
+	private Parameters setValue(Parameter p, double value) {
+		if (!Double.isFinite(value)) {
+			throw new IllegalArgumentException("value of parameter " + p.m_name + " must be a finite number");
+		}
+		if (value < p.m_min || value > p.m_max) {
+			if (p.m_type == Type.FLOAT) {
+				throw new IllegalArgumentException("value of parameter " + p.m_name + " must be in [" + (float)p.m_min + ", " + (float)p.m_max + "]");
+			} else {
+				throw new IllegalArgumentException("value of parameter " + p.m_name + " must be in [" + (long)p.m_min + ", " + (long)p.m_max + "]");
+			}
+		}
+		p.m_value = value;
+		return this;
+	}
+
+	private static String normalize(String s) {
+		return s.replaceAll("[\\s\\-_]", "").toLowerCase();
+	}
+}
@@ -0,0 +1,143 @@
+package imageprocessing;
+
+import utils.Metrics;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming export of particle features (see ParticleAnalyzer.Particles)
+ * <p>
+ * Each particle is written as one record: a line of comma separated values with a header line (CSV) or a JSON object
+ * per line (JSON lines). Records are written as soon as an image has been analyzed, hence the export of many images
+ * never holds more than the particles of one image in memory. The writer may be shared by concurrent analyses;
+ * the records of an image are written together.
+ */
+public class ParticleWriter implements Closeable {
+    public enum Format { CSV, JSON_LINES }
+
+    private static final String[] Columns = {
+            "source", "label", "area", "centroidU", "centroidV", "minU", "minV", "maxU", "maxV",
+            "contour", "eccentricity", "orientation", "compactness", "mu11", "mu20", "mu02"
+    };
+
+    private final Writer m_out;
+    private final Format m_format;
+    private final StringBuilder m_line = new StringBuilder(256);
+    private long m_count;
+
+    /**
+     * Creates a writer and writes the CSV header
+     *
+     * @param out    output, is closed by close()
+     * @param format record format
+     * @throws IOException
+     */
+    public ParticleWriter(Writer out, Format format) throws IOException {
+        m_out = out;
+        m_format = format;
+        if (format == Format.CSV) {
+            m_out.write(String.join(",", Columns));
+            m_out.write('\n');
+        }
+    }
+
+    /**
+     * Opens a file. The format is given by the extension: .jsonl, .ndjson and .json are JSON lines, all others CSV.
+     *
+     * @param fileName output file
+     * @return new writer
+     * @throws IOException
+     */
+    public static ParticleWriter open(String fileName) throws IOException {
+        final String name = fileName.toLowerCase();
+        final Format format = (name.endsWith(".jsonl") || name.endsWith(".ndjson") || name.endsWith(".json")) ? Format.JSON_LINES : Format.CSV;
+
+        return new ParticleWriter(new BufferedWriter(new FileWriter(fileName, StandardCharsets.UTF_8), 1 << 16), format);
+    }
+
+    /**
+     * Writes one record per particle
+     *
+     * @param source    name of the analyzed image
+     * @param particles features of the particles
+     * @throws IOException
+     */
+    public synchronized void write(String source, ParticleAnalyzer.Particles particles) throws IOException {
+        final String src = (m_format == Format.CSV) ? csv(source) : Metrics.quote(source);
+
+        for (int i = 0; i < particles.m_count; i++) {
+            final StringBuilder sb = m_line;
+
+            sb.setLength(0);
+            if (m_format == Format.CSV) {
+                sb.append(src);
+            } else {
+                sb.append("{\"").append(Columns[0]).append("\":").append(src);
+            }
+            field(sb, 1).append(particles.label(i));
+            field(sb, 2).append(particles.m_area[i]);
+            number(field(sb, 3), particles.centroidU(i));
+            number(field(sb, 4), particles.centroidV(i));
+            field(sb, 5).append(particles.m_minU[i]);
+            field(sb, 6).append(particles.m_minV[i]);
+            field(sb, 7).append(particles.m_maxU[i]);
+            field(sb, 8).append(particles.m_maxV[i]);
+            number(field(sb, 9), particles.m_contour[i]);
+            number(field(sb, 10), particles.eccentricity(i));
+            number(field(sb, 11), particles.orientation(i));
+            number(field(sb, 12), particles.compactness(i, 1));
+            number(field(sb, 13), particles.mu11(i));
+            number(field(sb, 14), particles.mu20(i));
+            number(field(sb, 15), particles.mu02(i));
+            if (m_format == Format.JSON_LINES) sb.append('}');
+            sb.append('\n');
+            m_out.append(sb);
+        }
+        m_count += particles.m_count;
+    }
+
+    /**
+     * Returns the number of records written so far
+     */
+    public synchronized long getCount() {
+        return m_count;
+    }
+
+    public synchronized void flush() throws IOException {
+        m_out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        m_out.close();
+    }
+
+    /**
+     * Appends the separator and, in JSON lines, the name of column c
+     */
+    private StringBuilder field(StringBuilder sb, int c) {
+        if (m_format == Format.CSV) return sb.append(',');
+        return sb.append(",\"").append(Columns[c]).append("\":");
+    }
+
+    /**
+     * Appends a floating point number. JSON has no NaN and Infinity: they are written as null, in CSV as empty field.
+     */
+    private void number(StringBuilder sb, double d) {
+        if (Double.isFinite(d)) sb.append(d);
+        else if (m_format == Format.JSON_LINES) sb.append("null");
+    }
+
+    /**
+     * Quotes a CSV field if necessary (RFC 4180)
+     */
+    private static String csv(String s) {
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) return s;
+        return '"' + s.replace("\"", "\"\"") + '"';
+    }
+}
@@ -2,6 +2,7 @@ package imageprocessing;
 
 import gui.OptionPane;
 import gui.RectTracker;
+import imageprocessing.fourier.FHT;
 import main.Picsi;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.Color;
@@ -13,9 +14,15 @@ import org.eclipse.swt.graphics.RGB;
 import org.eclipse.swt.graphics.Rectangle;
 import org.eclipse.swt.widgets.Display;
 import utils.BoundedPQ;
+import utils.Gray8Raster;
 import utils.Parallel;
+import utils.TopK;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Pattern matching based on correlation coefficient
@@ -23,6 +30,12 @@ import java.util.ArrayList;
  * @author Christoph Stamm
  */
 public class PatternMatching implements IImageProcessor {
+    public static final int SPATIAL = 0, FREQUENCY = 1, AUTOMATIC = 2; // correlation methods
+
+    private static final double FrequencyCostFactor = 3; // relative costs of a transform step and a multiplication (measured)
+    private static final int MinPyramidPattern = 8;     // minimum side length of a pattern in a pyramid
+    private static final int RefinementRadius = 2;      // neighborhood of a candidate at the next finer level
+
     public static class PMResult implements Comparable<PMResult> {
         public ROI m_roi;
         public double m_cl;
@@ -100,7 +113,7 @@ public class PatternMatching implements IImageProcessor {
     }
 
     /**
-     * Pattern matching based on correlation coefficient
+     * Pattern matching based on correlation coefficient. The correlation method is chosen by the estimated costs.
      *
      * @param inData
      * @param pattern
@@ -108,61 +121,419 @@ public class PatternMatching implements IImageProcessor {
      * @return results
      */
     public static BoundedPQ<PMResult> pm(ImageData inData, ROI pattern, int nResults) {
-        final int pw = pattern.getWidth();
-        final int ph = pattern.getHeight();
-        final int K = ph * pw;
-        final float K_sqrt = (float) Math.sqrt(K);
-        BoundedPQ<PMResult> results = new BoundedPQ<>(nResults);
-
-        float R_mean = 0;
-        for (int v = 0; v < ph; v++) {
-            for (int u = 0; u < pw; u++) {
-                R_mean += pattern.getPixel(u, v);
-            }
+        return pm(inData, pattern, nResults, AUTOMATIC);
+    }
+
+    /**
+     * Pattern matching based on correlation coefficient
+     * <p>
+     * The window sums and sums of squares are taken from summed-area tables, hence only the cross term
+     * sum(I*(R - R_mean)) has to be computed per position: either spatially or for all positions at once by a
+     * correlation in the frequency domain (see crossTerms). Row bands are scored in parallel, each with its own
+     * bounded heap of primitive candidates; result objects are only created for the best nResults positions.
+     * Windows or patterns of constant intensity have a correlation coefficient of 0.
+     *
+     * @param inData
+     * @param pattern
+     * @param nResults number of best results
+     * @param method   SPATIAL, FREQUENCY or AUTOMATIC
+     * @return results
+     */
+    public static BoundedPQ<PMResult> pm(ImageData inData, ROI pattern, int nResults, int method) {
+        final Pattern p = new Pattern(pattern.m_imageData);
+
+        return results(inData, match(new SearchImage(inData), p, nResults, method, false), inData.width - p.m_width + 1, p.m_width, p.m_height);
+    }
+
+    /**
+     * Matches many patterns in the same image. The image statistics and, if needed, its spectrum are computed
+     * only once, and the patterns are matched in parallel. Each pattern is matched with the same method as by
+     * pm(inData, pattern, nResults), hence the results are identical. Patterns matched in the frequency domain
+     * need two transform buffers each, so only as many of them run concurrently as fit into a quarter of the heap.
+     *
+     * @param inData   8 bit gray-value image
+     * @param patterns
+     * @param nResults number of best results per pattern
+     * @return results of each pattern in the order of the patterns
+     */
+    public static List<BoundedPQ<PMResult>> pm(ImageData inData, List<ROI> patterns, int nResults) {
+        final SearchImage image = new SearchImage(inData);
+        final int n = patterns.size();
+        final Pattern[] p = new Pattern[n];
+        final List<Integer> spatial = new ArrayList<>(), frequency = new ArrayList<>();
+        final List<BoundedPQ<PMResult>> results = new ArrayList<>(Collections.nCopies(n, null));
+
+        // same method as a single pm call, chosen before matching
+        for (int i = 0; i < n; i++) {
+            p[i] = new Pattern(patterns.get(i).m_imageData);
+            if (isFrequencyFaster(inData.width, inData.height, p[i].m_width, p[i].m_height)) frequency.add(i);
+            else spatial.add(i);
         }
-        R_mean /= K;
 
-        float sigma_r = 0;
-        for (int v = 0; v < ph; v++) {
-            for (int u = 0; u < pw; u++) {
-                int R = pattern.getPixel(u, v);
-                sigma_r += (R - R_mean) * (R - R_mean);
+        Parallel.For(0, spatial.size(), j -> {
+            final int i = spatial.get(j);
+
+            results.set(i, results(inData, match(image, p[i], nResults, SPATIAL, false), inData.width - p[i].m_width + 1, p[i].m_width, p[i].m_height));
+        });
+
+        if (!frequency.isEmpty()) {
+            // each pattern needs two transform buffers of N*N floats: limit the number of concurrent patterns
+            final long bufferSize = 2L * Float.BYTES * image.spectrum().getSize() * image.spectrum().getSize();
+            final int batch = (int) Math.max(1, Math.min(Parallel.getParallelism(), Runtime.getRuntime().maxMemory() / 4 / bufferSize));
+
+            for (int b = 0; b < frequency.size(); b += batch) {
+                Parallel.For(b, Math.min(frequency.size(), b + batch), j -> {
+                    final int i = frequency.get(j);
+
+                    results.set(i, results(inData, match(image, p[i], nResults, FREQUENCY, false), inData.width - p[i].m_width + 1, p[i].m_width, p[i].m_height));
+                });
             }
         }
-        sigma_r = (float) Math.sqrt(sigma_r / K);
-
-        // Calculate C_L(r,s)
-        for (int s = 0; s < inData.height - ph; s++) {
-            for (int r = 0; r < inData.width - pw; r++) {
-                //  Only calculate pattern-match in areas inside of image
-                if (r + pw < inData.x + inData.width && s + ph < inData.y + inData.height) {
-                    float I_mean = 0;
-                    int I_sum_sqrd = 0;
-                    int product_I_R = 0;
-                    for (int j = 0; j < ph; j++) {
-                        for (int i = 0; i < pw; i++) {
-                            int I = inData.getPixel(r + i, s + j);
-                            I_mean += I;
-                            I_sum_sqrd += I * I;
-                            int R = pattern.getPixel(i, j);
-                            product_I_R += I * R;
+        return results;
+    }
+
+    /**
+     * Coarse-to-fine pattern matching with Gaussian pyramids of the image and the pattern
+     * <p>
+     * The coarsest level is searched exhaustively (see pm). The best candidates of a level are refined at the next
+     * finer level in a small neighborhood of their doubled positions, until the original resolution is reached.
+     * The candidates of the coarsest level are local maxima of the correlation coefficient.
+     * The number of candidates per result trades accuracy against speed. Candidates are refined in parallel.
+     * The number of levels is reduced if the pattern would become smaller than MinPyramidPattern pixels.
+     *
+     * @param inData     8 bit gray-value image
+     * @param pattern
+     * @param nResults   number of best results
+     * @param levels     number of pyramid levels, 1: exhaustive search
+     * @param candidates number of candidates per result kept at coarser levels, at least 1
+     * @return results
+     */
+    public static BoundedPQ<PMResult> pyramidPM(ImageData inData, ROI pattern, int nResults, int levels, int candidates) {
+        // pyramids: index 0 is the original resolution
+        final List<ImageData> images = new ArrayList<>();
+        final List<ImageData> patterns = new ArrayList<>();
+
+        images.add(inData);
+        patterns.add(pattern.m_imageData);
+        while (images.size() < levels) {
+            final ImageData p = patterns.get(patterns.size() - 1);
+
+            if (Math.min(p.width, p.height) / 2 < MinPyramidPattern) break;
+            images.add(reduce(images.get(images.size() - 1)));
+            patterns.add(reduce(p));
+        }
+
+        final int nCandidates = nResults * Math.max(1, candidates);
+        int level = images.size() - 1;
+        ImageData img = images.get(level);
+        Pattern p = new Pattern(patterns.get(level));
+        TopK best = (level == 0)
+                ? match(new SearchImage(img), p, nResults, AUTOMATIC, false)
+                : match(new SearchImage(img), p, nCandidates, AUTOMATIC, true);
+
+        while (level > 0) {
+            final int nu = img.width - p.m_width + 1;
+            final TopK coarse = best;
+
+            level--;
+            img = images.get(level);
+            p = new Pattern(patterns.get(level));
+
+            final SearchImage image = new SearchImage(img);
+            final Pattern pat = p;
+            final int nuFine = img.width - pat.m_width + 1, nvFine = img.height - pat.m_height + 1;
+            final int[] positions = new int[coarse.size()];
+            final float[] scores = new float[coarse.size()];
+
+            // best position in the neighborhood of each candidate
+            Parallel.For(0, coarse.size(), c -> {
+                final int r0 = 2 * (coarse.payload(c) % nu), s0 = 2 * (coarse.payload(c) / nu);
+                float bestScore = Float.NEGATIVE_INFINITY;
+                int bestPos = -1;
+
+                for (int s = Math.max(0, s0 - RefinementRadius); s <= Math.min(nvFine - 1, s0 + RefinementRadius); s++) {
+                    for (int r = Math.max(0, r0 - RefinementRadius); r <= Math.min(nuFine - 1, r0 + RefinementRadius); r++) {
+                        final float score = score(image, pat, r, s);
+
+                        if (score > bestScore) {
+                            bestScore = score;
+                            bestPos = s * nuFine + r;
                         }
                     }
-                    I_mean /= K;
+                }
+                positions[c] = bestPos;
+                scores[c] = bestScore;
+            });
+
+            // neighboring candidates may end at the same position
+            best = new TopK((level == 0) ? nResults : nCandidates);
+            final Set<Integer> seen = new HashSet<>();
+            for (int c = 0; c < positions.length; c++) {
+                if (positions[c] >= 0 && seen.add(positions[c])) best.add(scores[c], positions[c]);
+            }
+        }
+        return results(inData, best, inData.width - p.m_width + 1, p.m_width, p.m_height);
+    }
+
+    /**
+     * Image side of pattern matching, prepared once and shared by all patterns: raster, summed-area tables and,
+     * if needed, the Hartley spectrum
+     */
+    private static class SearchImage {
+        final ImageData m_data;
+        final Gray8Raster m_raster;
+        final IntegralImage m_integral;
+        private FHT m_spectrum;     // computed on demand
+
+        SearchImage(ImageData inData) {
+            m_data = inData;
+            m_raster = new Gray8Raster(inData);
+            m_integral = new IntegralImage(inData);
+        }
+
+        synchronized FHT spectrum() {
+            if (m_spectrum == null) {
+                m_spectrum = new FHT(m_data);
+                m_spectrum.transform();
+            }
+            return m_spectrum;
+        }
+    }
+
+    /**
+     * Pattern values and statistics
+     */
+    private static class Pattern {
+        final int m_width, m_height;
+        final int[] m_values;   // row by row
+        final double m_mean;
+        final double m_norm;    // sigma_r * sqrt(K)
+
+        Pattern(ImageData pattern) {
+            final int K = pattern.width * pattern.height;
+
+            m_width = pattern.width;
+            m_height = pattern.height;
+            m_values = new int[K];
+
+            double R_mean = 0;
+            for (int v = 0; v < m_height; v++) {
+                for (int u = 0; u < m_width; u++) {
+                    m_values[v * m_width + u] = pattern.getPixel(u, v);
+                    R_mean += m_values[v * m_width + u];
+                }
+            }
+            R_mean /= K;
+
+            double R_norm = 0;
+            for (int i = 0; i < K; i++) R_norm += (m_values[i] - R_mean) * (m_values[i] - R_mean);
+
+            m_mean = R_mean;
+            m_norm = Math.sqrt(R_norm);
+        }
+    }
+
+    /**
+     * Exhaustive matching of all positions
+     *
+     * @param image       prepared image
+     * @param p           pattern
+     * @param capacity    number of best candidates
+     * @param method      SPATIAL, FREQUENCY or AUTOMATIC
+     * @param localMaxima true: only positions without a better neighbor are candidates (requires a score map)
+     * @return best candidates, position s*nu + r, where nu is the number of positions per row
+     */
+    private static TopK match(SearchImage image, Pattern p, int capacity, int method, boolean localMaxima) {
+        final ImageData inData = image.m_data;
+        final int nu = inData.width - p.m_width + 1, nv = inData.height - p.m_height + 1;
+        final Gray8Raster in = image.m_raster;
+        final IntegralImage integral = image.m_integral;
+        if (nu <= 0 || nv <= 0) return new TopK(capacity);
+
+        final boolean frequency = method == FREQUENCY
+                || (method == AUTOMATIC && isFrequencyFaster(inData.width, inData.height, p.m_width, p.m_height));
+        final FHT corr = (frequency) ? crossTerms(image.spectrum(), p) : null;
+        if (!localMaxima) {
+            return TopK.collect(0, nv, capacity, (s, candidates) -> {
+                final float[] scores = new float[nu];
+
+                scoreRow(in, integral, p, corr, s, nu, scores, 0);
+                for (int r = 0; r < nu; r++) candidates.add(scores[r], s * nu + r);
+            });
+        }
 
-                    // Zähler: Sum(I*R) - K * I_mean * R_mean
-                    float numerator = product_I_R - K * I_mean * R_mean;
+        final float[] map = new float[nu * nv];
 
-                    // Nenner: sqrt( SUM(I(r+i,s+j))^2 - K * (I_mean)^2) * o_R * sqrt(K)
-                    float denominator = (float) Math.sqrt(I_sum_sqrd - K * (I_mean * I_mean)) * sigma_r * K_sqrt;
+        Parallel.For(0, nv, s -> scoreRow(in, integral, p, corr, s, nu, map, s * nu));
+        return TopK.collect(0, nv, capacity, (s, candidates) -> {
+            for (int r = 0; r < nu; r++) {
+                if (isLocalMaximum(map, nu, nv, r, s)) candidates.add(map[s * nu + r], s * nu + r);
+            }
+        });
+    }
+
+    /**
+     * Correlation coefficients of all positions of row s
+     *
+     * @param in       8 bit gray-value image
+     * @param integral summed-area tables of in
+     * @param p        pattern
+     * @param corr     cross terms computed in the frequency domain or null
+     * @param s        row
+     * @param nu       number of positions per row
+     * @param scores   output
+     * @param offset   index of the first score of the row
+     */
+    private static void scoreRow(Gray8Raster in, IntegralImage integral, Pattern p, FHT corr, int s, int nu, float[] scores, int offset) {
+        final int pw = p.m_width, ph = p.m_height, K = pw * ph;
+
+        if (corr != null) {
+            final float[] cross = corr.getValues();
+            final int row = s * corr.getSize();
 
-                    float C_L = numerator / denominator;
-                    PMResult result = new PMResult(new ROI(inData, new Rectangle(r, s, pw, ph)), C_L);
-                    results.add(result);
+            for (int r = 0; r < nu; r++) {
+                scores[offset + r] = correlation(cross[row + r], integral.sum(r, s, pw, ph), integral.sumSq(r, s, pw, ph), K, p.m_norm);
+            }
+        } else {
+            final long[] cross = new long[nu];
+
+            // cross terms of all positions of row s: contiguous inner loop
+            for (int j = 0; j < ph; j++) {
+                final int row = in.row(s + j);
+
+                for (int i = 0; i < pw; i++) {
+                    final int Rji = p.m_values[j * pw + i];
+                    final int off = row + i;
+
+                    for (int r = 0; r < nu; r++) cross[r] += (in.m_data[off + r] & 0xFF) * Rji;
                 }
             }
+            for (int r = 0; r < nu; r++) {
+                final long sumI = integral.sum(r, s, pw, ph);
+
+                scores[offset + r] = correlation(cross[r] - sumI * p.m_mean, sumI, integral.sumSq(r, s, pw, ph), K, p.m_norm);
+            }
+        }
+    }
+
+    /**
+     * Returns true if no position of the 3x3 neighborhood has a higher score
+     */
+    private static boolean isLocalMaximum(float[] map, int nu, int nv, int r, int s) {
+        final float score = map[s * nu + r];
+
+        for (int s2 = Math.max(0, s - 1); s2 <= Math.min(nv - 1, s + 1); s2++) {
+            for (int r2 = Math.max(0, r - 1); r2 <= Math.min(nu - 1, r + 1); r2++) {
+                if (map[s2 * nu + r2] > score) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Correlation coefficient of a single position
+     */
+    private static float score(SearchImage image, Pattern p, int r, int s) {
+        final Gray8Raster in = image.m_raster;
+        final IntegralImage integral = image.m_integral;
+        final int pw = p.m_width, ph = p.m_height;
+        long cross = 0;
+
+        for (int j = 0; j < ph; j++) {
+            final int row = in.row(s + j) + r;
+
+            for (int i = 0; i < pw; i++) cross += (in.m_data[row + i] & 0xFF) * p.m_values[j * pw + i];
         }
 
+        final long sumI = integral.sum(r, s, pw, ph);
+        return correlation(cross - sumI * p.m_mean, sumI, integral.sumSq(r, s, pw, ph), pw * ph, p.m_norm);
+    }
+
+    /**
+     * Next coarser pyramid level: Gaussian filter and subsampling by 2
+     */
+    private static ImageData reduce(ImageData inData) {
+        final ImageData smoothed = GaussianFilter.gaussian(1, inData);
+        final ImageData outData = ImageProcessing.createImage(inData.width / 2, inData.height / 2, Picsi.IMAGE_TYPE_GRAY);
+        final Gray8Raster in = new Gray8Raster(smoothed);
+        final Gray8Raster out = new Gray8Raster(outData);
+
+        Parallel.For(0, outData.height, v -> {
+            for (int u = 0; u < outData.width; u++) out.set(u, v, in.get(2 * u, 2 * v));
+        });
+        return outData;
+    }
+
+    /**
+     * Correlation coefficient
+     *
+     * @param numerator sum(I*R) - K * I_mean * R_mean = sum(I*(R - R_mean)) of the window
+     * @param sumI      sum(I) of the window
+     * @param sumI2     sum(I*I) of the window
+     * @param K         number of pixels of the pattern
+     * @param rNorm     sigma_r*sqrt(K) of the pattern
+     * @return correlation coefficient in [-1, 1]
+     */
+    private static float correlation(double numerator, long sumI, long sumI2, int K, double rNorm) {
+        // Nenner: sqrt( SUM(I(r+i,s+j))^2 - K * (I_mean)^2) * o_R * sqrt(K)
+        final double varI = sumI2 - (double) sumI * sumI / K;
+
+        if (varI <= 0 || rNorm == 0) return 0;
+        return (float) (numerator / (Math.sqrt(varI) * rNorm));
+    }
+
+    /**
+     * Cross terms sum(I(r+i,s+j)*(R(i,j) - R_mean)) of all positions (r, s) by a correlation in the frequency domain.
+     * The image and the zero-mean pattern are zero-padded to the size of the transform. The correlation is cyclic,
+     * but the windows of the positions within the image don't wrap around.
+     *
+     * @param image spectrum of the 8 bit gray-value image
+     * @param p     pattern
+     * @return cross term of position (r, s) at index s*getSize() + r
+     */
+    private static FHT crossTerms(FHT image, Pattern p) {
+        final float[] values = new float[p.m_values.length];
+
+        for (int i = 0; i < values.length; i++) values[i] = (float) (p.m_values[i] - p.m_mean);
+
+        final FHT pattern = new FHT(values, p.m_width, p.m_height, image.getSize());
+
+        pattern.transform();
+
+        final FHT corr = image.conjugateMultiply(pattern);
+        corr.inverseTransform();
+        return corr;
+    }
+
+    /**
+     * Estimates whether the correlation in the frequency domain is faster than the spatial correlation:
+     * w*h*pw*ph multiplications compared to three transforms of size N*N with cost N*N*log2(N*N) each
+     *
+     * @param w  image width
+     * @param h  image height
+     * @param pw pattern width
+     * @param ph pattern height
+     * @return true if the frequency domain should be used
+     */
+    private static boolean isFrequencyFaster(int w, int h, int pw, int ph) {
+        final int n = Integer.highestOneBit(Math.max(w, h) - 1) << 1; // size of the transform
+        final double spatial = (double) Math.max(0, w - pw + 1) * Math.max(0, h - ph + 1) * pw * ph;
+        final double frequency = 3.0 * n * n * 2 * Integer.numberOfTrailingZeros(n);
+
+        return spatial > FrequencyCostFactor * frequency;
+    }
+
+    /**
+     * Creates the result objects of the best candidates
+     */
+    private static BoundedPQ<PMResult> results(ImageData inData, TopK best, int nu, int pw, int ph) {
+        final BoundedPQ<PMResult> results = new BoundedPQ<>(Math.max(1, best.capacity()));
+
+        for (int i = 0; i < best.size(); i++) {
+            final int pos = best.payload(i);
+
+            results.add(new PMResult(new ROI(inData, new Rectangle(pos % nu, pos / nu, pw, ph)), best.score(i)));
+        }
         return results;
     }
 
@@ -1,23 +1,25 @@
 package imageprocessing;
 
-import gui.OptionPane;
 import org.eclipse.swt.graphics.ImageData;
 import utils.Matrix;
 import utils.Parallel;
 
 import java.util.ArrayList;
 
-public class Rotation implements IImageProcessor {
+public class Rotation implements IParameterizedProcessor {
     @Override
     public boolean isEnabled(int imageType) {
         return true;
     }
 
     @Override
-    public ImageData run(ImageData inData, int imageType) {
-        float a = 45.0f;
-        float b = OptionPane.showFloatDialog("Rotation (GUZS)?", a);
-        return basicRotation(inData, b, imageType);
+    public Parameters createParameters() {
+        return new Parameters().addFloat("angle", "Rotation (GUZS)?", 45.0f, -360.0f, 360.0f);
+    }
+
+    @Override
+    public ImageData run(ImageData inData, int imageType, Parameters params) {
+        return basicRotation(inData, params.getFloat("angle"), imageType);
     }
 
     // Target to source
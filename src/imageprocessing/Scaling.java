@@ -1,24 +1,25 @@
 package imageprocessing;
 
-import gui.OptionPane;
-import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.ImageData;
 import utils.Matrix;
 import utils.Parallel;
 
-public class Scaling implements IImageProcessor {
+public class Scaling implements IParameterizedProcessor {
     @Override
     public boolean isEnabled(int imageType) {
         return true;
     }
 
     @Override
-    public ImageData run(ImageData inData, int imageType) {
-        Object[] methods = {"Nearest Neighbor", "Bilinear", "Bikubisch"};
-        int m = OptionPane.showOptionDialog("Options", SWT.ICON_INFORMATION, methods, 0);
-        float z = OptionPane.showFloatDialog("Skalierung?", 1.0f);
+    public Parameters createParameters() {
+        return new Parameters()
+                .addChoice("method", "Options", 0, "Nearest Neighbor", "Bilinear", "Bikubisch")
+                .addFloat("scale", "Skalierung?", 1.0f, 0.01f, 100.0f);
+    }
 
-        return scale(inData, z, m);
+    @Override
+    public ImageData run(ImageData inData, int imageType, Parameters params) {
+        return scale(inData, params.getFloat("scale"), params.getChoice("method"));
     }
 
     public static ImageData scale(ImageData in, float scale, int option) {
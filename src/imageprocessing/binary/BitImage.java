@@ -0,0 +1,427 @@
+package imageprocessing.binary;
+
+import java.util.Arrays;
+
+import org.eclipse.swt.graphics.ImageData;
+
+import imageprocessing.MorphologicFilter;
+import imageprocessing.MorphologicFilter.Segment;
+import utils.Parallel;
+
+/**
+ * Bit-packed binary image: 64 pixels per long.
+ * Pixel u of row v is bit (u & 63) of word v*m_words + (u >> 6). Set bits are foreground pixels.
+ * The padding bits after the last pixel of a row are always 0.
+ * 
+ * Morphological operations process whole words of 64 pixels with shifts and ANDs or ORs per horizontal line 
+ * segment of the structuring element. Rows are processed in parallel. All operations return a new image.
+ *
+ */
+public class BitImage {
+	public final int m_width, m_height;
+	public final int m_words;			// number of words per row
+	public final long[] m_bits;			// rows of packed pixels
+	private final long m_lastMask;		// valid bits of the last word of a row
+	private static final int MaxDirectRunLength = 8;	// shorter runs are combined without doubling
+	
+	public BitImage(int width, int height) {
+		m_width = width;
+		m_height = height;
+		m_words = (width + 63) >> 6;
+		m_bits = new long[m_words*height];
+		m_lastMask = ((width & 63) == 0) ? -1L : (1L << (width & 63)) - 1;
+	}
+	
+	/**
+	 * Creates a bit image of a binary image or a binarized grayscale image
+	 * @param imageData binary image or grayscale image
+	 * @param foreground pixel value of foreground pixels
+	 * @return bit image
+	 */
+	public static BitImage fromImageData(ImageData imageData, int foreground) {
+		final BitImage bi = new BitImage(imageData.width, imageData.height);
+		
+		Parallel.For(0, imageData.height, v -> {
+			final int base = v*bi.m_words;
+			final int row = v*imageData.bytesPerLine;
+			
+			if (imageData.depth == 1) {
+				// MSB first bytes: reverse the bits of each byte
+				final long invert = (foreground == 0) ? 0xFF : 0;
+				
+				for (int b = 0; b < (imageData.width + 7) >> 3; b++) {
+					final long bits = ((Integer.reverse(imageData.data[row + b] & 0xFF) >>> 24) ^ invert) & 0xFF;
+					bi.m_bits[base + (b >> 3)] |= bits << ((b & 7) << 3);
+				}
+				bi.m_bits[base + bi.m_words - 1] &= bi.m_lastMask;
+			} else if (imageData.depth == 8) {
+				for (int u = 0; u < imageData.width; u++) {
+					if ((imageData.data[row + u] & 0xFF) == foreground) bi.m_bits[base + (u >> 6)] |= 1L << u;
+				}
+			} else {
+				for (int u = 0; u < imageData.width; u++) {
+					if (imageData.getPixel(u, v) == foreground) bi.m_bits[base + (u >> 6)] |= 1L << u;
+				}
+			}
+		});
+		return bi;
+	}
+	
+	/**
+	 * Creates an image of the same type as the template with foreground and background pixels
+	 * @param template binary image or grayscale image of the same size
+	 * @param foreground pixel value of foreground pixels
+	 * @param background pixel value of background pixels
+	 * @return new image
+	 */
+	public ImageData toImageData(ImageData template, int foreground, int background) {
+		assert template.width == m_width && template.height == m_height : "different image sizes";
+		
+		final ImageData imageData = (ImageData)template.clone();
+		
+		Parallel.For(0, m_height, v -> {
+			final int base = v*m_words;
+			final int row = v*imageData.bytesPerLine;
+			
+			if (imageData.depth == 1) {
+				final int invert = (foreground == 0) ? 0xFF : 0;
+				
+				for (int b = 0; b < (m_width + 7) >> 3; b++) {
+					final int bits = (int)(m_bits[base + (b >> 3)] >>> ((b & 7) << 3)) & 0xFF;
+					imageData.data[row + b] = (byte)((Integer.reverse(bits) >>> 24) ^ invert);
+				}
+			} else if (imageData.depth == 8) {
+				for (int u = 0; u < m_width; u++) {
+					imageData.data[row + u] = (byte)(((m_bits[base + (u >> 6)] >>> u) & 1) != 0 ? foreground : background);
+				}
+			} else {
+				for (int u = 0; u < m_width; u++) {
+					imageData.setPixel(u, v, ((m_bits[base + (u >> 6)] >>> u) & 1) != 0 ? foreground : background);
+				}
+			}
+		});
+		return imageData;
+	}
+	
+	public boolean get(int u, int v) {
+		return ((m_bits[v*m_words + (u >> 6)] >>> u) & 1) != 0;
+	}
+	
+	public void set(int u, int v, boolean foreground) {
+		if (foreground) m_bits[v*m_words + (u >> 6)] |= 1L << u;
+		else m_bits[v*m_words + (u >> 6)] &= ~(1L << u);
+	}
+	
+	/**
+	 * Returns the number of foreground pixels
+	 * @return
+	 */
+	public long count() {
+		long n = 0;
+		
+		for (long w : m_bits) n += Long.bitCount(w);
+		return n;
+	}
+	
+	/**
+	 * Erosion: a pixel is foreground if all pixels under the true elements of the structure are foreground.
+	 * Pixels outside the image are background. If the structure is empty, then all pixels are foreground.
+	 * The structure is decomposed into horizontal line segments (see MorphologicFilter.segments). Rectangles and lines
+	 * are separated into a horizontal and a vertical pass.
+	 * @param struct all true elements belong to the structure
+	 * @param cx origin of the structure (hotspot)
+	 * @param cy origin of the structure (hotspot)
+	 * @return eroded image
+	 */
+	public BitImage erode(boolean[][] struct, int cx, int cy) {
+		final Segment[] segments = MorphologicFilter.segments(struct);
+		
+		if (segments.length == 0) return new BitImage(m_width, m_height).not();
+		if (MorphologicFilter.isRectangle(segments)) {
+			final Segment s = segments[0];
+			
+			return horizontalRuns(s.m_start - cx, s.m_length, true).verticalRuns(s.m_row - cy, segments.length, true);
+		}
+		
+		final BitImage out = new BitImage(m_width, m_height);
+		
+		Parallel.For(0, m_height, v -> {
+			final int base = v*m_words;
+			final long[] run = new long[m_words];
+			final long[] tmp = new long[runWords(maxLength(segments))];
+			
+			Arrays.fill(out.m_bits, base, base + m_words, -1L);
+			for (Segment s : segments) {
+				final int v0 = v + s.m_row - cy;
+				
+				if (v0 < 0 || v0 >= m_height) {
+					Arrays.fill(out.m_bits, base, base + m_words, 0);
+					return;
+				}
+				horizontalRun(v0, s.m_start - cx, s.m_length, true, run, tmp);
+				for (int k = 0; k < m_words; k++) out.m_bits[base + k] &= run[k];
+			}
+			out.m_bits[base + m_words - 1] &= m_lastMask;
+		});
+		return out;
+	}
+	
+	/**
+	 * Dilation: a pixel is foreground if the structure mirrored at its origin hits at least one foreground pixel.
+	 * Pixels outside the image are background. If the structure is empty, then all pixels are background.
+	 * The structure is decomposed into horizontal line segments (see MorphologicFilter.segments). Rectangles and lines
+	 * are separated into a horizontal and a vertical pass.
+	 * @param struct all true elements belong to the structure
+	 * @param cx origin of the structure (hotspot)
+	 * @param cy origin of the structure (hotspot)
+	 * @return dilated image
+	 */
+	public BitImage dilate(boolean[][] struct, int cx, int cy) {
+		final Segment[] segments = MorphologicFilter.segments(struct);
+		
+		if (segments.length == 0) return new BitImage(m_width, m_height);
+		if (MorphologicFilter.isRectangle(segments)) {
+			final Segment s = segments[0];
+			
+			return horizontalRuns(cx - s.m_start - s.m_length + 1, s.m_length, false).verticalRuns(cy - s.m_row - segments.length + 1, segments.length, false);
+		}
+		
+		final BitImage out = new BitImage(m_width, m_height);
+		
+		Parallel.For(0, m_height, v -> {
+			final int base = v*m_words;
+			final long[] run = new long[m_words];
+			final long[] tmp = new long[runWords(maxLength(segments))];
+			
+			for (Segment s : segments) {
+				final int v0 = v - s.m_row + cy;
+				
+				if (v0 < 0 || v0 >= m_height) continue;
+				horizontalRun(v0, cx - s.m_start - s.m_length + 1, s.m_length, false, run, tmp);
+				for (int k = 0; k < m_words; k++) out.m_bits[base + k] |= run[k];
+			}
+			out.m_bits[base + m_words - 1] &= m_lastMask;
+		});
+		return out;
+	}
+	
+	/**
+	 * Opening: multiplicity erosions followed by multiplicity dilations
+	 */
+	public BitImage open(boolean[][] struct, int cx, int cy, int multiplicity) {
+		BitImage bi = this;
+		
+		for (int i = 0; i < multiplicity; i++) bi = bi.erode(struct, cx, cy);
+		for (int i = 0; i < multiplicity; i++) bi = bi.dilate(struct, cx, cy);
+		return bi;
+	}
+	
+	/**
+	 * Closing: multiplicity dilations followed by multiplicity erosions
+	 */
+	public BitImage close(boolean[][] struct, int cx, int cy, int multiplicity) {
+		BitImage bi = this;
+		
+		for (int i = 0; i < multiplicity; i++) bi = bi.dilate(struct, cx, cy);
+		for (int i = 0; i < multiplicity; i++) bi = bi.erode(struct, cx, cy);
+		return bi;
+	}
+	
+	public BitImage and(BitImage bi) {
+		return combine(bi, (a, b) -> a & b);
+	}
+	
+	public BitImage or(BitImage bi) {
+		return combine(bi, (a, b) -> a | b);
+	}
+	
+	public BitImage xor(BitImage bi) {
+		return combine(bi, (a, b) -> a ^ b);
+	}
+	
+	/**
+	 * Returns this and not bi
+	 */
+	public BitImage andNot(BitImage bi) {
+		return combine(bi, (a, b) -> a & ~b);
+	}
+	
+	/**
+	 * Returns the complement
+	 */
+	public BitImage not() {
+		return combine(this, (a, b) -> ~a);
+	}
+	
+	private static interface WordOp {
+		long run(long a, long b);
+	}
+	
+	private BitImage combine(BitImage bi, WordOp op) {
+		assert bi.m_width == m_width && bi.m_height == m_height : "different image sizes";
+		
+		final BitImage out = new BitImage(m_width, m_height);
+		
+		Parallel.For(0, m_height, v -> {
+			final int base = v*m_words;
+			
+			for (int k = 0; k < m_words; k++) out.m_bits[base + k] = op.run(m_bits[base + k], bi.m_bits[base + k]);
+			out.m_bits[base + m_words - 1] &= m_lastMask;
+		});
+		return out;
+	}
+	
+	private static int maxLength(Segment[] segments) {
+		int max = 0;
+		
+		for (Segment s : segments) max = Math.max(max, s.m_length);
+		return max;
+	}
+	
+	/**
+	 * Combines the pixels of horizontal runs in all rows (see horizontalRun)
+	 * @param d offset of the first pixel of a run
+	 * @param length run length
+	 * @param and true: AND, false: OR
+	 * @return new image
+	 */
+	private BitImage horizontalRuns(int d, int length, boolean and) {
+		final BitImage out = new BitImage(m_width, m_height);
+		
+		Parallel.For(0, m_height, v -> {
+			final long[] run = new long[m_words];
+			
+			horizontalRun(v, d, length, and, run, new long[runWords(length)]);
+			System.arraycopy(run, 0, out.m_bits, v*m_words, m_words);
+			out.m_bits[(v + 1)*m_words - 1] &= m_lastMask;
+		});
+		return out;
+	}
+	
+	/**
+	 * Combines the pixels u + d, ..., u + d + length - 1 of row v for each pixel u: 
+	 * runs of doubling lengths are combined with word shifts, hence a run costs log(length) operations per 64 pixels.
+	 * Pixels outside the row are 0.
+	 * @param v row
+	 * @param d offset of the first pixel of a run, can be negative
+	 * @param length run length > 0
+	 * @param and true: AND, false: OR
+	 * @param run output row with m_words words, padding bits are undefined
+	 * @param tmp temporary row with at least runWords(length) words
+	 */
+	private void horizontalRun(int v, int d, int length, boolean and, long[] run, long[] tmp) {
+		if (length <= MaxDirectRunLength) {
+			// combine shifted words directly
+			for (int k = 0; k < m_words; k++) {
+				long w = shifted(m_bits, v*m_words, m_words, k, d);
+				
+				for (int t = 1; t < length; t++) {
+					w = (and) ? w & shifted(m_bits, v*m_words, m_words, k, d + t) : w | shifted(m_bits, v*m_words, m_words, k, d + t);
+				}
+				run[k] = w;
+			}
+			return;
+		}
+		
+		final int words = runWords(length);
+		int n = 1;
+		
+		// tmp pixel t is pixel t + d of row v
+		for (int k = 0; k < words; k++) tmp[k] = shifted(m_bits, v*m_words, m_words, k, d);
+		
+		// tmp pixel t combines the pixels t + d, ..., t + d + n - 1
+		while (2*n <= length) {
+			for (int k = 0; k < words; k++) {
+				final long w = shifted(tmp, 0, words, k, n);
+				
+				tmp[k] = (and) ? tmp[k] & w : tmp[k] | w;
+			}
+			n *= 2;
+		}
+		// two overlapping runs of length n cover the run of length n <= length < 2n
+		for (int k = 0; k < m_words; k++) {
+			final long w = shifted(tmp, 0, words, k, length - n);
+			
+			run[k] = (and) ? tmp[k] & w : tmp[k] | w;
+		}
+	}
+	
+	/**
+	 * Returns the number of words of the temporary row of horizontalRun
+	 * @param length run length
+	 * @return
+	 */
+	private int runWords(int length) {
+		return m_words + (length >> 6) + 1;
+	}
+	
+	/**
+	 * van Herk/Gil-Werman: combines the rows v + d, ..., v + d + length - 1 for each row v with 3 operations per word.
+	 * The rows are divided into blocks of length rows. Each window of length rows is covered by the suffix of a block
+	 * and the prefix of the next block. Rows outside the image are 0.
+	 * @param d offset of the first row of a window, can be negative
+	 * @param length window length > 0
+	 * @param and true: AND, false: OR
+	 * @return new image
+	 */
+	private BitImage verticalRuns(int d, int length, boolean and) {
+		final int n = m_height + length - 1;				// rows d, ..., d + n - 1 are used
+		final int nBlocks = (n + length - 1)/length;
+		final long[] prefix = new long[n*m_words];
+		final long[] suffix = new long[n*m_words];
+		final BitImage out = new BitImage(m_width, m_height);
+		
+		Parallel.For(0, nBlocks, b -> {
+			final int k0 = b*length, k1 = Math.min(n, k0 + length);
+			
+			for (int k = k0; k < k1; k++) {
+				final int v = d + k;
+				
+				for (int i = 0; i < m_words; i++) {
+					final long w = (v < 0 || v >= m_height) ? 0 : m_bits[v*m_words + i];
+					
+					prefix[k*m_words + i] = (k == k0) ? w : (and) ? prefix[(k - 1)*m_words + i] & w : prefix[(k - 1)*m_words + i] | w;
+				}
+			}
+			for (int k = k1 - 1; k >= k0; k--) {
+				final int v = d + k;
+				
+				for (int i = 0; i < m_words; i++) {
+					final long w = (v < 0 || v >= m_height) ? 0 : m_bits[v*m_words + i];
+					
+					suffix[k*m_words + i] = (k == k1 - 1) ? w : (and) ? suffix[(k + 1)*m_words + i] & w : suffix[(k + 1)*m_words + i] | w;
+				}
+			}
+		});
+		Parallel.For(0, m_height, v -> {
+			final int s = v*m_words, p = (v + length - 1)*m_words;
+			
+			for (int i = 0; i < m_words; i++) {
+				out.m_bits[s + i] = (and) ? suffix[s + i] & prefix[p + i] : suffix[s + i] | prefix[p + i];
+			}
+		});
+		return out;
+	}
+	
+	/**
+	 * Returns the pixels 64k + d, ..., 64k + d + 63 of a row as word: pixel 64k + d is the lowest bit.
+	 * Pixels outside the row are 0.
+	 * @param bits packed rows
+	 * @param base index of the first word of the row
+	 * @param words number of words of the row
+	 * @param k word index
+	 * @param d pixel offset, can be negative
+	 * @return
+	 */
+	private static long shifted(long[] bits, int base, int words, int k, int d) {
+		final int p = (k << 6) + d;	// first pixel
+		final int q = p >> 6, r = p & 63;
+		final long lo = word(bits, base, words, q) >>> r;
+		
+		return (r == 0) ? lo : lo | (word(bits, base, words, q + 1) << (64 - r));
+	}
+	
+	private static long word(long[] bits, int base, int words, int k) {
+		return (k < 0 || k >= words) ? 0 : bits[base + k];
+	}
+}
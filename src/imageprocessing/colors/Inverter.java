@@ -49,6 +49,20 @@ public class Inverter implements IImageProcessor {
 			// works for images with/without palette
 			final int mask = imageData.palette.isDirect ? (1 << imageData.depth) - 1 : imageData.palette.colors.length - 1;
 			
+			if (imageData.depth >= 8 && imageData.depth%8 == 0 && mask == (1 << imageData.depth) - 1) {
+				// all bits of all pixel bytes are inverted: invert the bytes of each row directly
+				final byte[] data = imageData.data;
+				final int rowBytes = imageData.width*imageData.depth/8;
+				
+				Parallel.For(0, imageData.height, v -> {
+					final int row = v*imageData.bytesPerLine;
+					
+					for (int i = row; i < row + rowBytes; i++) {
+						data[i] = (byte)~data[i];
+					}
+				});
+				return;
+			}
 			Parallel.For(0, imageData.height, v -> {
 				for (int u=0; u < imageData.width; u++) {
 					final int pixel = imageData.getPixel(u,v);
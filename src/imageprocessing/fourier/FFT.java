@@ -2,15 +2,12 @@ package imageprocessing.fourier;
 
 import main.Picsi;
 
-import java.util.Arrays;
-
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.ImageData;
 
 import gui.OptionPane;
 import imageprocessing.IImageProcessor;
 import imageprocessing.ImageProcessing;
-import utils.Complex;
 import utils.FrequencyDomain;
 import utils.Parallel;
 
@@ -22,6 +19,7 @@ import utils.Parallel;
  */
 public class FFT implements IImageProcessor {
 	final static double FilterFactor = 3.8; // 3.8 is a good value
+	final static int ColumnBlock = 16; // number of columns transformed together: 16 doubles fill two cache lines
 	
 	@Override
 	public boolean isEnabled(int imageType) {
@@ -149,43 +147,26 @@ public class FFT implements IImageProcessor {
 			h <<= 1;
 		}
 		
-		Complex[] row = new Complex[w];
-		Complex[] col = new Complex[h];
-		Complex[][] G = new Complex[h][];
-		
-		// create arrays
-		for (int i=0; i < row.length; i++) {
-			row[i] = new Complex();
-		}
+		final FrequencyDomain fd = new FrequencyDomain(inData, width, height, w, h);
+		final double[] re = fd.m_re, im = fd.m_im;
+		final int rowLen = Math.min(w, inData.width);
+		final int nRows = Math.min(h, inData.height);
+		final int rowSize = w;
 		
-		// forward transform rows
-		int rowPos = 0;
-		for (int v=0; v < h; v++) {
-			if (v < inData.height) {
-				final int rP = rowPos;
-				Parallel.For(0, Math.min(w, inData.width), u -> {
-					row[u].m_re = (0xFF & inData.data[rP + u])/norm;
-				});
-				G[v] = FFT1D.fft(row);
-				rowPos += inData.bytesPerLine;
-			} else {
-				G[v] = new Complex[w];
-				Arrays.fill(G[v], new Complex());
+		// forward transform rows, rows outside of the image remain zero
+		Parallel.For(0, nRows, v -> {
+			final int rowPos = v*inData.bytesPerLine;
+			final int offset = v*rowSize;
+			
+			for (int u = 0; u < rowLen; u++) {
+				re[offset + u] = (0xFF & inData.data[rowPos + u])/norm;
 			}
-		}
+			FFT1D.transform(re, im, offset, rowSize, false);
+		});
 		
 		// forward transform columns
-		for (int u=0; u < w; u++) {
-			final int u_ = u;
-			Parallel.For(0, h, v -> {
-				col[v] = G[v][u_];
-			});
-			Complex[] Gcol = FFT1D.fft(col);
-			Parallel.For(0, h, v -> {
-				G[v][u_] = Gcol[v];
-			});
-		}
-		return new FrequencyDomain(inData, width, height, G);
+		transformColumns(re, im, w, h, false);
+		return fd;
 	}
 	
 	/**
@@ -193,27 +174,21 @@ public class FFT implements IImageProcessor {
 	 * @param fd frequency domain object
 	 * @return output image
 	 */
-	public static ImageData ifft2D(FrequencyDomain fdOrig) {
-		FrequencyDomain fd = fdOrig.clone();
+	public static ImageData ifft2D(FrequencyDomain fd) {
 		ImageData outData = new ImageData(fd.m_width, fd.m_height, fd.m_depth, fd.m_palette);
-		Complex[] col = new Complex[fd.getSpectrumHeight()];
+		final int w = fd.getSpectrumWidth();
+		final int width = Math.min(outData.width, w);
+		final double[] re = fd.m_re.clone(), im = fd.m_im.clone();
 	
-		// inverse transform rows
-		for (int v=0; v < fd.getSpectrumHeight(); v++) {
-			fd.m_g[v] = FFT1D.ifft(fd.m_g[v]);
-		}
-		
-		// inverse transform columns
-		for (int u=0; u < Math.min(outData.width, fd.getSpectrumWidth()); u++) {
-			final int u_ = u;
-			Parallel.For(0, fd.getSpectrumHeight(), v -> {
-				col[v] = fd.m_g[v][u_];
-			});
-			Complex[] Gcol = FFT1D.ifft(col);
-			Parallel.For(0, Math.min(outData.height, fd.getSpectrumHeight()), v -> {
-				outData.data[u_ + v*outData.bytesPerLine] = (byte)ImageProcessing.clamp8(Gcol[v].m_re);
-			});
-		}
+		inverseTransform(re, im, w, fd.getSpectrumHeight(), outData.height);
+		Parallel.For(0, Math.min(outData.height, fd.getSpectrumHeight()), v -> {
+			final int offset = v*w;
+			final int outPos = v*outData.bytesPerLine;
+			
+			for (int u = 0; u < width; u++) {
+				outData.data[outPos + u] = (byte)ImageProcessing.clamp8(re[offset + u]);
+			}
+		});
 		return outData;
 	}
 
@@ -222,29 +197,77 @@ public class FFT implements IImageProcessor {
 	 * @param fd frequency domain object
 	 * @return output real part
 	 */
-	public static double[][] ifft2Dreal(FrequencyDomain fdOrig) {
-		FrequencyDomain fd = fdOrig.clone();
+	public static double[][] ifft2Dreal(FrequencyDomain fd) {
 		double[][] outData = new double[fd.m_height][fd.m_width];
-		Complex[] col = new Complex[fd.getSpectrumHeight()];
+		final int w = fd.getSpectrumWidth();
+		final int width = Math.min(fd.m_width, w);
+		final double[] re = fd.m_re.clone(), im = fd.m_im.clone();
 	
-		// inverse transform rows
-		for (int v=0; v < fd.getSpectrumHeight(); v++) {
-			fd.m_g[v] = FFT1D.ifft(fd.m_g[v]);
-		}
-		
-		// inverse transform columns
-		for (int u=0; u < Math.min(fd.m_width, fd.getSpectrumWidth()); u++) {
-			final int u_ = u;
-			Parallel.For(0, fd.getSpectrumHeight(), v -> {
-				col[v] = fd.m_g[v][u_];
-			});
-			Complex[] Gcol = FFT1D.ifft(col);
-			Parallel.For(0, Math.min(fd.m_height, fd.getSpectrumHeight()), v -> {
-				outData[v][u_] = Gcol[v].m_re;
-			});
-		}
+		inverseTransform(re, im, w, fd.getSpectrumHeight(), fd.m_height);
+		Parallel.For(0, Math.min(fd.m_height, fd.getSpectrumHeight()), v -> {
+			System.arraycopy(re, v*w, outData[v], 0, width);
+		});
 		return outData;
+	}
+	
+	/**
+	 * In-place inverse transform of a w x h spectrum. Only the first height rows of the output are valid.
+	 */
+	private static void inverseTransform(double[] re, double[] im, int w, int h, int height) {
+		// inverse transform columns
+		transformColumns(re, im, w, h, true);
+		
+		// inverse transform rows
+		Parallel.For(0, Math.min(height, h), v -> {
+			FFT1D.transform(re, im, v*w, w, true);
+		});
+	}
+	
+	/**
+	 * In-place transform of the columns of a w x h matrix stored row by row.
+	 * Blocks of adjacent columns are copied to contiguous buffers (blocked transpose), transformed,
+	 * and copied back. Blocks are processed in parallel.
+	 * @param re real parts
+	 * @param im imaginary parts
+	 * @param w number of columns
+	 * @param h number of rows, power of 2
+	 * @param inverse
+	 */
+	private static void transformColumns(double[] re, double[] im, int w, int h, boolean inverse) {
+		final int nBlocks = (w + ColumnBlock - 1)/ColumnBlock;
 		
+		Parallel.For(0, nBlocks, 
+			// creator
+			() -> new double[2][ColumnBlock*h],
+			// loop body
+			(b, buf) -> {
+				final int u0 = b*ColumnBlock;
+				final int bw = Math.min(ColumnBlock, w - u0);
+				final double[] bre = buf[0], bim = buf[1];
+				
+				// transpose block: column u0 + k becomes buffer row k
+				for (int v = 0; v < h; v++) {
+					final int i0 = v*w + u0;
+					for (int k = 0; k < bw; k++) {
+						bre[k*h + v] = re[i0 + k];
+						bim[k*h + v] = im[i0 + k];
+					}
+				}
+				for (int k = 0; k < bw; k++) {
+					FFT1D.transform(bre, bim, k*h, h, inverse);
+				}
+				// transpose back
+				for (int v = 0; v < h; v++) {
+					final int i0 = v*w + u0;
+					for (int k = 0; k < bw; k++) {
+						re[i0 + k] = bre[k*h + v];
+						im[i0 + k] = bim[k*h + v];
+					}
+				}
+			},
+			// reducer
+			buf -> {}
+		);
 	}
 	
 	/**
@@ -256,7 +279,7 @@ public class FFT implements IImageProcessor {
 		FHT fht2D = new FHT(inData);
 		
 		fht2D.transform();
-		return new FrequencyDomain(inData, fht2D.getSpectrum());
+		return fht2D.getSpectrum();
 	}
 		
 	/**
@@ -265,7 +288,7 @@ public class FFT implements IImageProcessor {
 	 * @return output image
 	 */
 	public static ImageData ifht2D(FrequencyDomain fd) {
-		FHT fht2D = new FHT(fd.m_g, fd.m_width, fd.m_height, fd.m_depth, fd.m_palette);
+		FHT fht2D = new FHT(fd);
 		
 		fht2D.inverseTransform();
 		return fht2D.getImage();
@@ -432,7 +455,7 @@ public class FFT implements IImageProcessor {
 	
 	  		for (int row=0; row < height; row++) {
 				for (int col=0; col < width; col++) {
-					final double power = fd.m_g[row][col].abs2();
+					final double power = fd.getPower(col, row);
 					if (power < min) min = power;
 					if (power > max) max = power;
 				}
@@ -453,7 +476,7 @@ public class FFT implements IImageProcessor {
 			final int offset = row*width;
 			
 			for (int col=0; col < width; col++) {
-				double power = fd.m_g[row][col].abs2();
+				double power = fd.getPower(col, row);
 				power = (Math.log(power)/2 - fd.m_min)*fd.m_powerScale;
 				if (Double.isNaN(power) || power < 0) power = 0;
 				ps[offset + col] = (byte)ImageProcessing.clamp8(power + 1); // 1 is min value
@@ -481,7 +504,7 @@ public class FFT implements IImageProcessor {
 			final int offset = row*width;
 
 			for (int col=0; col < width; col++) {
-				double phi = fd.m_g[row][col].arg();
+				double phi = fd.getPhase(col, row);
 				ps[offset + col] = (byte)ImageProcessing.clamp8((phi + PID2)*scale);
 			}
 		});
@@ -1,79 +1,163 @@
 package imageprocessing.fourier;
 
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
 import utils.Complex;
 
 /**
  * Fast Fourier Transforms in 1D
+ * 
+ * Iterative in-place radix-2 Cooley-Tukey FFT on separate arrays of real and imaginary parts.
+ * The twiddle factors and the bit-reversal permutation are computed once per transform size and shared
+ * by all threads.
  * @author Christoph Stamm
  *
  */
 public class FFT1D {
+	/**
+	 * Tables of a transform size N
+	 */
+	private static class Tables {
+		final int[] m_swap;		// pairs (i, j) with j = bitreverse(i) and i < j
+		final double[] m_cos;	// cos(2*pi*k/N), 0 <= k < N/2
+		final double[] m_sin;	// sin(2*pi*k/N), 0 <= k < N/2
+		
+		Tables(int N) {
+			final int log2N = Integer.numberOfTrailingZeros(N);
+			int nSwaps = 0;
+			
+			m_cos = new double[N/2];
+			m_sin = new double[N/2];
+			for (int k = 0; k < N/2; k++) {
+				final double kth = 2*k*Math.PI/N;
+				m_cos[k] = Math.cos(kth);
+				m_sin[k] = Math.sin(kth);
+			}
+
+			final int[] swap = new int[N];
+			for (int i = 0; i < N; i++) {
+				final int j = (log2N == 0) ? 0 : Integer.reverse(i) >>> (32 - log2N);
+				if (i < j) {
+					swap[nSwaps++] = i;
+					swap[nSwaps++] = j;
+				}
+			}
+			m_swap = Arrays.copyOf(swap, nSwaps);
+		}
+	}
+	
+	private static final ConcurrentHashMap<Integer, Tables> s_tables = new ConcurrentHashMap<>();
+
 	/**
 	 * Computes the FFT of x[], assuming its length is a power of 2
 	 * Difference to DFT1D: for m > N/2 subtraction is used while DFT always adds terms
 	 * @param x input of size 2^k
 	 * @return complex Fourier spectrum 
 	 */
-    public static Complex[] fft(Complex[] x) {
-        int N = x.length;
+	public static Complex[] fft(Complex[] x) {
+		return transform(x, false);
+	}
 
-        // base case
-        if (N == 1) {
-        	return new Complex[] { x[0] };
-        } else {
-	        // radix 2 Cooley-Tukey FFT
-	        assert (N & 1) == 0 : "N is not a power of 2";
-	
-	        // fft of even terms
-	        Complex[] even = new Complex[N/2];
-	        for (int k = 0; k < N/2; k++) {
-	            even[k] = x[2*k];
-	        }
-	        Complex[] q = fft(even);
-	
-	        // fft of odd terms
-	        Complex[] odd  = even;  // reuse the array
-	        for (int k = 0; k < N/2; k++) {
-	            odd[k] = x[2*k + 1];
-	        }
-	        Complex[] r = fft(odd);
-	
-	        // combine
-	        Complex[] y = new Complex[N];
-	        for (int k = 0; k < N/2; k++) {
-	            final double kth = -2*k*Math.PI/N;
-	            Complex wk = new Complex(Math.cos(kth), Math.sin(kth));
-	            y[k]       = q[k].add(wk.mul(r[k]));
-	            y[k + N/2] = q[k].sub(wk.mul(r[k]));
-	        }
-	        return y;
-        }
-    }
+	/**
+	 * Computes the inverse FFT of x[], assuming its length is a power of 2
+	 * @param x complex Fourier spectrum
+	 * @return (complex) output data
+	 */
+	public static Complex[] ifft(Complex[] x) {
+		return transform(x, true);
+	}
 
-    /**
-     * Computes the inverse FFT of x[], assuming its length is a power of 2
-     * @param x complex Fourier spectrum
-     * @return (complex) output data
-     */
-    public static Complex[] ifft(Complex[] x) {
-        int N = x.length;
-        Complex[] y = new Complex[N];
+	/**
+	 * In-place FFT of the complex values (re[i], im[i])
+	 * @param re real parts of size 2^k, is overwritten by the real parts of the spectrum
+	 * @param im imaginary parts of size 2^k, is overwritten by the imaginary parts of the spectrum
+	 */
+	public static void fft(double[] re, double[] im) {
+		transform(re, im, 0, re.length, false);
+	}
 
-        // take conjugate
-        for (int i = 0; i < N; i++) {
-            y[i] = x[i].conjugate();
-        }
+	/**
+	 * In-place inverse FFT of the complex values (re[i], im[i]), including the division by N
+	 * @param re real parts of size 2^k, is overwritten by the real parts of the output
+	 * @param im imaginary parts of size 2^k, is overwritten by the imaginary parts of the output
+	 */
+	public static void ifft(double[] re, double[] im) {
+		transform(re, im, 0, re.length, true);
+	}
 
-        // compute forward FFT
-        y = fft(y);
+	/**
+	 * In-place FFT of the N complex values (re[offset + i], im[offset + i]), 0 <= i < N
+	 * @param re real parts
+	 * @param im imaginary parts
+	 * @param offset index of the first value
+	 * @param N transform size 2^k
+	 * @param inverse true: inverse transform, including the division by N
+	 */
+	public static void transform(double[] re, double[] im, int offset, int N, boolean inverse) {
+		assert Integer.bitCount(N) == 1 : "N is not a power of 2";
+		final Tables t = s_tables.computeIfAbsent(N, Tables::new);
+		final double[] cos = t.m_cos, sin = t.m_sin;
+		final double sign = (inverse) ? 1 : -1;
+		
+		// bit-reversal permutation
+		final int[] swap = t.m_swap;
+		for (int k = 0; k < swap.length; k += 2) {
+			final int i = offset + swap[k], j = offset + swap[k + 1];
+			double tmp = re[i]; re[i] = re[j]; re[j] = tmp;
+			tmp = im[i]; im[i] = im[j]; im[j] = tmp;
+		}
 
-        // take conjugate again
-        // divide by N
-        for (int i = 0; i < N; i++) {
-            y[i].conj();
-            y[i].divide(N);
-        }
+		// first stage: butterflies without multiplications
+		for (int i = offset; i < offset + N - 1; i += 2) {
+			final double r = re[i + 1], m = im[i + 1];
+			re[i + 1] = re[i] - r; im[i + 1] = im[i] - m;
+			re[i] += r; im[i] += m;
+		}
+		
+		// remaining stages: butterflies of span half with twiddle factors exp(sign*2*pi*i*k/len)
+		for (int len = 4; len <= N; len <<= 1) {
+			final int half = len >> 1, step = N/len;
+			
+			for (int start = offset; start < offset + N; start += len) {
+				for (int k = 0, tw = 0; k < half; k++, tw += step) {
+					final int i = start + k, j = i + half;
+					final double wr = cos[tw], wi = sign*sin[tw];
+					final double r = re[j]*wr - im[j]*wi;
+					final double m = re[j]*wi + im[j]*wr;
+					re[j] = re[i] - r; im[j] = im[i] - m;
+					re[i] += r; im[i] += m;
+				}
+			}
+		}
+		
+		if (inverse) {
+			final double s = 1.0/N;
+			for (int i = offset; i < offset + N; i++) {
+				re[i] *= s;
+				im[i] *= s;
+			}
+		}
+	}
 
-        return y;
-    }
+	/**
+	 * Adapter for arrays of complex numbers
+	 */
+	private static Complex[] transform(Complex[] x, boolean inverse) {
+		final int N = x.length;
+		final double[] re = new double[N];
+		final double[] im = new double[N];
+		
+		for (int i = 0; i < N; i++) {
+			re[i] = x[i].m_re;
+			im[i] = x[i].m_im;
+		}
+		transform(re, im, 0, N, inverse);
+		
+		Complex[] y = new Complex[N];
+		for (int i = 0; i < N; i++) {
+			y[i] = new Complex(re[i], im[i]);
+		}
+		return y;
+	}
 }
@@ -4,7 +4,8 @@ import org.eclipse.swt.graphics.ImageData;
 import org.eclipse.swt.graphics.PaletteData;
 
 import imageprocessing.ImageProcessing;
-import utils.Complex;
+import main.Picsi;
+import utils.FrequencyDomain;
 
 /**
  * 2D Fast Hartley Transform
@@ -55,23 +56,41 @@ public class FHT extends FHT1D implements Cloneable {
 	}
 
 	/**
-	 * Constructor for inverse transform
-	 * @param G
+	 * Constructor for forward transform of real values
+	 * @param values w*h values, row by row
 	 * @param w
 	 * @param h
-	 * @param depth
-	 * @param palette
+	 * @param maxN size of the square transform: power of 2 and at least max(w, h)
 	 */
-	public FHT(Complex[][] G, int w, int h, int depth, PaletteData palette) {
+	public FHT(float[] values, int w, int h, int maxN) {
+		assert Integer.bitCount(maxN) == 1 && maxN >= Math.max(w, h) : "invalid transform size " + maxN;
 		m_width = w;
 		m_height = h;
-		this.m_depth = depth;
-		this.m_palette = palette;
-		m_maxN = G.length;
-		m_maxN = G[0].length;
+		m_depth = 8;
+		m_palette = ImageProcessing.createImage(1, 1, Picsi.IMAGE_TYPE_GRAY).palette;
+		m_isFrequencyDomain = false;
+		m_maxN = maxN;
+		m_pixels = new float[m_maxN*m_maxN];
+
+		for (int v = 0; v < h; v++) {
+			System.arraycopy(values, v*w, m_pixels, v*m_maxN, w);
+		}
+	}
+
+	/**
+	 * Constructor for inverse transform
+	 * @param fd square Fourier spectrum
+	 */
+	public FHT(FrequencyDomain fd) {
+		m_width = fd.m_width;
+		m_height = fd.m_height;
+		this.m_depth = fd.m_depth;
+		this.m_palette = fd.m_palette;
+		m_maxN = fd.getSpectrumWidth();
 		m_pixels = new float[m_maxN*m_maxN];
 		m_isFrequencyDomain = true;
 		
+		final double[] re = fd.m_re, im = fd.m_im;
 		int base = 0;
 		for (int row = 0; row < m_maxN; row++) {
 	        int offs = ((m_maxN - row)%m_maxN)*m_maxN;
@@ -79,11 +98,10 @@ public class FHT extends FHT1D implements Cloneable {
 	        for (int col = 0; col < m_maxN; col++) {
 	        	int omegaPlus = base + col;
 	        	int omegaNeg = offs + ((m_maxN - col)%m_maxN);
-	        	Complex c = G[row][col];
 	        	
 	        	// compute FHT using FT
-	        	m_pixels[omegaPlus] = (float)(c.m_re - c.m_im);
-	        	m_pixels[omegaNeg]  = (float)(c.m_re + c.m_im);
+	        	m_pixels[omegaPlus] = (float)(re[omegaPlus] - im[omegaPlus]);
+	        	m_pixels[omegaNeg]  = (float)(re[omegaPlus] + im[omegaPlus]);
 	        }
 	        base += m_maxN;
 		}
@@ -157,6 +175,22 @@ public class FHT extends FHT1D implements Cloneable {
 		}
 	}
 
+	/**
+	 * Returns the size of the square transform
+	 * @return power of 2
+	 */
+	public int getSize() {
+		return m_maxN;
+	}
+
+	/**
+	 * Returns the values of the transform row by row, with getSize() values per row (not a copy)
+	 * @return values
+	 */
+	public float[] getValues() {
+		return m_pixels;
+	}
+
 	public ImageData getImage() {
 		ImageData outData = new ImageData(m_width, m_height, m_depth, m_palette);
 		
@@ -173,11 +207,12 @@ public class FHT extends FHT1D implements Cloneable {
 		return outData;
 	}
 	
-	public Complex[][] getSpectrum() {
+	public FrequencyDomain getSpectrum() {
 		if (!m_isFrequencyDomain)
 			throw new  IllegalArgumentException("Frequency domain image required");
 		
-		Complex[][] G = new Complex[m_maxN][m_maxN];
+		final double[] re = new double[m_maxN*m_maxN];
+		final double[] im = new double[m_maxN*m_maxN];
 
 		int base = 0;
 		for (int row = 0; row < m_maxN; row++) {
@@ -188,11 +223,12 @@ public class FHT extends FHT1D implements Cloneable {
 	        	final int omegaNeg = offs + ((m_maxN - col)%m_maxN);
 	        	
 	        	// compute FT using FHT
-	        	G[row][col] = new Complex((m_pixels[omegaPlus] + m_pixels[omegaNeg])*0.5, (-m_pixels[omegaPlus] + m_pixels[omegaNeg])*0.5);
+	        	re[omegaPlus] = (m_pixels[omegaPlus] + m_pixels[omegaNeg])*0.5;
+	        	im[omegaPlus] = (-m_pixels[omegaPlus] + m_pixels[omegaNeg])*0.5;
 	        }
 	        base += m_maxN;
 		}
-		return G;
+		return new FrequencyDomain(m_width, m_height, m_depth, m_palette, m_maxN, m_maxN, re, im);
 	}
 
 	/*void changeValues(ImageData inData, int v1, int v2, int v3) {
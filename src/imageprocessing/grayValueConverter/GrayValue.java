@@ -6,7 +6,9 @@ import main.Picsi;
 import org.eclipse.swt.graphics.ImageData;
 import org.eclipse.swt.graphics.PaletteData;
 import org.eclipse.swt.graphics.RGB;
+import utils.Gray8Raster;
 import utils.Parallel;
+import utils.Rgb24Raster;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -41,6 +43,24 @@ public class GrayValue implements IImageProcessor {
         // ImageProcessing.clamp8(intensity);
         // then you can call outData.setPixel(u, v, <clamp>)
 
+        if (outData.depth == 24) {
+            final Rgb24Raster in = new Rgb24Raster(outData);
+            final Gray8Raster out = new Gray8Raster(grayScale);
+
+            Parallel.For(0, outData.height, v -> {
+                final int outRow = out.row(v);
+
+                for (int u = 0, i = in.row(v); u < outData.width; u++, i += 3) {
+                    int red = in.m_data[i] & 0xFF;
+                    int green = in.m_data[i + 1] & 0xFF;
+                    int blue = in.m_data[i + 2] & 0xFF;
+
+                    out.m_data[outRow + u] = (byte) (int)(red*0.2 + green*0.6 + blue*0.2);
+                }
+            });
+            return grayScale;
+        }
+
         Parallel.For(0, outData.height, v -> {
             for (int u = 0; u < outData.width; u++) {
                 int temp = outData.getPixel(u, v);
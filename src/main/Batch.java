@@ -0,0 +1,399 @@
+package main;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.graphics.ImageData;
+
+import files.IImageFile;
+import files.ImageFiles;
+import imageprocessing.Binarization;
+import imageprocessing.CornerDetection;
+import imageprocessing.Debayering;
+import imageprocessing.FloodFilling;
+import imageprocessing.GaussianFilter;
+import imageprocessing.HoughTransform;
+import imageprocessing.IImageProcessor;
+import imageprocessing.IParameterizedProcessor;
+import imageprocessing.ImageProcessing;
+import imageprocessing.MedianFilter;
+import imageprocessing.MinMaxFilter;
+import imageprocessing.MorphologicFilter;
+import imageprocessing.Parameters;
+import imageprocessing.ParticleAnalyzer;
+import imageprocessing.ParticleWriter;
+import imageprocessing.Rotation;
+import imageprocessing.Scaling;
+import imageprocessing.colors.Inverter;
+import imageprocessing.grayValueConverter.GrayValue;
+import utils.Metrics;
+import utils.ProgressMonitor;
+
+/**
+ * Headless batch processing: applies a chain of image processors to many image files
+ * without opening the Picsi main window.
+ * <pre>
+ * java main.Batch [-t threads] [-o outputDir] [-f outputExtension] [-m metrics.json] [-p particles.csv] -c chain file...
+ * </pre>
+ * The chain consists of steps separated by ';'. Each step is a name optionally followed
+ * by parameters in their string form (see Parameters) in parentheses,
+ * e.g. "gaussian(sigma=2);binarization;closing(structure=diamond5);particles".
+ * Files are processed concurrently by a bounded pool of worker threads. Nothing is processed if two files would be
+ * written to the same output file, e.g. inputs with the same name from different directories and option -o.
+ * The metrics of each step are measured (see utils.Metrics). A summary per step is printed at the end,
+ * and all records can be written to a JSON file.
+ * The features of the particles found by the step "particles" can be streamed to a CSV or JSON lines file
+ * (see ParticleWriter) instead of being printed to the console.
+ */
+public class Batch {
+	/**
+	 * Processing step of a chain
+	 */
+	private static interface Step {
+		ImageData run(ImageData inData, int imageType, String fileName) throws Exception;
+	}
+
+	/**
+	 * Registered step: processor creator and preset parameters in string form
+	 */
+	private static class StepType {
+		private final Supplier<IImageProcessor> m_creator;
+		private final String m_presets;
+
+		private StepType(Supplier<IImageProcessor> creator, String presets) {
+			m_creator = creator;
+			m_presets = presets;
+		}
+	}
+
+	private static final Map<String, StepType> s_steps = new LinkedHashMap<>();
+
+	static {
+		register("gray", GrayValue::new, "");
+		register("invert", Inverter::new, "");
+		register("gaussian", GaussianFilter::new, "");
+		register("median", MedianFilter::new, "");
+		register("minmax", MinMaxFilter::new, "");
+		register("binarization", Binarization::new, "");
+		register("morphology", MorphologicFilter::new, "");
+		register("erosion", MorphologicFilter::new, "operation=Erosion");
+		register("dilation", MorphologicFilter::new, "operation=Dilation");
+		register("opening", MorphologicFilter::new, "operation=Opening");
+		register("closing", MorphologicFilter::new, "operation=Closing");
+		register("floodfill", FloodFilling::new, "");
+		register("hough", HoughTransform::new, "");
+		register("corners", CornerDetection::new, "");
+		register("scaling", Scaling::new, "");
+		register("rotation", Rotation::new, "");
+		register("debayering", Debayering::new, "");
+		register("particles", ParticleAnalyzer::new, "");
+	}
+
+	private static void register(String name, Supplier<IImageProcessor> creator, String presets) {
+		s_steps.put(name, new StepType(creator, presets));
+	}
+
+	private int m_nThreads = Runtime.getRuntime().availableProcessors();
+	private File m_outDir;				// null: write next to the input file
+	private String m_outExt;			// null: use extension of input file
+	private String m_metricsFile;		// null: don't write metrics
+	private String m_particlesFile;		// null: print particle tables
+	private ParticleWriter m_particleWriter;
+	private List<Step> m_chain = new ArrayList<>();
+	private List<String> m_files = new ArrayList<>();
+
+	public static void main(String[] args) {
+		ImageFiles.registerUserImageFiles();
+
+		Batch batch = new Batch();
+		try {
+			batch.parseArguments(args);
+		} catch(IllegalArgumentException ex) {
+			System.err.println(ex.getMessage());
+			usage();
+			System.exit(2);
+		}
+		System.exit(batch.process() ? 0 : 1);
+	}
+
+	private static void usage() {
+		System.err.println("Usage: java main.Batch [-t threads] [-o outputDir] [-f outputExtension] [-m metrics.json] [-p particles.csv|particles.jsonl] -c chain file...");
+		System.err.println("  chain: steps separated by ';', e.g. \"gaussian(sigma=2);binarization;closing(structure=diamond5)\"");
+		System.err.println("  steps and their default parameters:");
+		for (Map.Entry<String, StepType> e : s_steps.entrySet()) {
+			IImageProcessor proc = e.getValue().m_creator.get();
+
+			if (proc instanceof IParameterizedProcessor) {
+				Parameters params = ((IParameterizedProcessor)proc).createParameters().parse(e.getValue().m_presets);
+				System.err.println("    " + e.getKey() + '(' + params + ')');
+			} else {
+				System.err.println("    " + e.getKey());
+			}
+		}
+	}
+
+	/**
+	 * Parse command line arguments
+	 * @param args
+	 */
+	private void parseArguments(String[] args) {
+		String chain = null;
+
+		for (int i = 0; i < args.length; i++) {
+			switch(args[i]) {
+			case "-t":
+				m_nThreads = Integer.parseInt(value(args, ++i));
+				if (m_nThreads < 1) throw new IllegalArgumentException("number of threads must be positive");
+				break;
+			case "-o":
+				m_outDir = new File(value(args, ++i));
+				break;
+			case "-f":
+				m_outExt = value(args, ++i);
+				if (m_outExt.startsWith(".")) m_outExt = m_outExt.substring(1);
+				break;
+			case "-c":
+				chain = value(args, ++i);
+				break;
+			case "-m":
+				m_metricsFile = value(args, ++i);
+				break;
+			case "-p":
+				m_particlesFile = value(args, ++i);
+				break;
+			default:
+				m_files.add(args[i]);
+			}
+		}
+		if (chain == null) throw new IllegalArgumentException("no processing chain given");
+		if (m_files.isEmpty()) throw new IllegalArgumentException("no input files given");
+
+		for (String s : chain.split(";")) {
+			s = s.trim();
+			if (!s.isEmpty()) m_chain.add(parseStep(s));
+		}
+	}
+
+	private static String value(String[] args, int i) {
+		if (i >= args.length) throw new IllegalArgumentException("missing value of option " + args[i - 1]);
+		return args[i];
+	}
+
+	/**
+	 * Parse a single step of the form name or name(name=value,...)
+	 * @param s
+	 * @return processing step
+	 */
+	private Step parseStep(String s) {
+		String name = s, args = "";
+		int open = s.indexOf('(');
+
+		if (open >= 0) {
+			if (!s.endsWith(")")) throw new IllegalArgumentException("missing ')' in step " + s);
+			name = s.substring(0, open).trim();
+			args = s.substring(open + 1, s.length() - 1);
+		}
+		StepType type = s_steps.get(name.toLowerCase());
+		if (type == null) throw new IllegalArgumentException("unknown step " + name);
+
+		IImageProcessor proc = type.m_creator.get();
+		final String stepName = name;
+
+		if (proc instanceof IParameterizedProcessor) {
+			final Parameters params;
+			try {
+				params = ((IParameterizedProcessor)proc).createParameters().parse(type.m_presets).parse(args);
+			} catch(IllegalArgumentException ex) {
+				throw new IllegalArgumentException("step " + stepName + ": " + ex.getMessage());
+			}
+			// a new processor per run, because processors may keep state in fields
+			return (inData, imageType, fileName) -> {
+				IParameterizedProcessor p = (IParameterizedProcessor)type.m_creator.get();
+				checkEnabled(stepName, p, imageType);
+				if (p instanceof ParticleAnalyzer && m_particleWriter != null) {
+					((ParticleAnalyzer)p).setWriter(m_particleWriter, fileName);
+				}
+				return measure(stepName, params.toString(), inData, () -> p.run(inData, imageType, params));
+			};
+		} else {
+			if (!args.trim().isEmpty()) throw new IllegalArgumentException("step " + stepName + " has no parameters");
+			return (inData, imageType, fileName) -> {
+				IImageProcessor p = type.m_creator.get();
+				checkEnabled(stepName, p, imageType);
+				return measure(stepName, null, inData, () -> p.run(inData, imageType));
+			};
+		}
+	}
+
+	private static void checkEnabled(String stepName, IImageProcessor proc, int imageType) {
+		if (!proc.isEnabled(imageType)) {
+			throw new IllegalArgumentException("step " + stepName + " doesn't support " + Picsi.imageTypeString(imageType) + " images");
+		}
+	}
+
+	/**
+	 * Runs a processor and records its metrics
+	 * @param stepName
+	 * @param parameters parameters in string form or null
+	 * @param inData input image
+	 * @param processor
+	 * @return output image of the processor
+	 * @throws Exception
+	 */
+	private static ImageData measure(String stepName, String parameters, ImageData inData, Callable<ImageData> processor) throws Exception {
+		final ProgressMonitor monitor = new ProgressMonitor();
+		final Metrics.Measurement m = Metrics.start(stepName, parameters, inData.width, inData.height, monitor);
+		final ImageData outData = monitor.run(processor);
+		
+		m.stop();
+		return outData;
+	}
+	
+	/**
+	 * Process all files with a bounded number of worker threads
+	 * @return true if all files have been processed successfully
+	 */
+	private boolean process() {
+		if (!checkOutputFileNames()) return false;
+		if (m_particlesFile != null) {
+			try {
+				m_particleWriter = ParticleWriter.open(m_particlesFile);
+			} catch(IOException e) {
+				System.err.println(m_particlesFile + ": " + e);
+				return false;
+			}
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(m_nThreads, m_files.size()));
+		List<Future<Long>> futures = new ArrayList<>(m_files.size());
+		final long start = System.nanoTime();
+		
+		// keep the records of all steps
+		Metrics.setLogCapacity(Math.max(Metrics.getLogCapacity(), m_files.size()*m_chain.size()));
+
+		for (String fileName : m_files) {
+			futures.add(executor.submit(() -> processFile(fileName)));
+		}
+
+		long pixels = 0;
+		int failed = 0;
+
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				pixels += futures.get(i).get();
+			} catch (Exception e) {
+				Throwable cause = (e.getCause() != null) ? e.getCause() : e;
+				System.err.println(m_files.get(i) + ": " + cause);
+				failed++;
+			}
+		}
+		executor.shutdown();
+
+		boolean ok = failed == 0;
+		if (m_particleWriter != null) {
+			try {
+				m_particleWriter.close();
+				System.out.printf("%d particles -> %s%n", m_particleWriter.getCount(), m_particlesFile);
+			} catch(IOException e) {
+				System.err.println(m_particlesFile + ": " + e);
+				ok = false;
+			}
+		}
+
+		final double sec = (System.nanoTime() - start)*1e-9;
+		System.out.printf("%d files processed, %d failed, %.2f s, %.2f MP/s%n", m_files.size() - failed, failed, sec, pixels*1e-6/sec);
+		System.out.print(Metrics.summary());
+		if (m_metricsFile != null) {
+			try {
+				Metrics.writeJSON(m_metricsFile);
+			} catch(IOException e) {
+				System.err.println(m_metricsFile + ": " + e);
+				return false;
+			}
+		}
+		return ok;
+	}
+
+	/**
+	 * Load, process and save a single file
+	 * @param fileName
+	 * @return number of input pixels
+	 * @throws Exception
+	 */
+	private long processFile(String fileName) throws Exception {
+		final long start = System.nanoTime();
+		int fileType = ImageFiles.determinefileType(fileName);
+		if (fileType == SWT.IMAGE_UNDEFINED) throw new Exception("unknown file type");
+
+		IImageFile inFile = ImageFiles.createImageFile(fileType);
+		ImageData imageData = inFile.read(fileName);
+		final int w = imageData.width, h = imageData.height;
+		final long pixels = (long)w*h;
+
+		for (Step step : m_chain) {
+			ImageData output = step.run(imageData, ImageProcessing.determineImageType(imageData), fileName);
+			if (output != null) imageData = output;
+		}
+
+		String outName = outputFileName(fileName);
+		int outType = ImageFiles.determinefileType(outName);
+		if (outType == SWT.IMAGE_UNDEFINED) throw new Exception("unknown output file type");
+
+		IImageFile outFile = ImageFiles.createImageFile(outType);
+		outFile.save(outName, outType, imageData, ImageProcessing.determineImageType(imageData));
+
+		final double sec = (System.nanoTime() - start)*1e-9;
+		System.out.printf("%s (%dx%d): %.1f ms, %.2f MP/s -> %s%n", fileName, w, h, sec*1e3, pixels*1e-6/sec, outName);
+		return pixels;
+	}
+
+	/**
+	 * Files are processed concurrently: make sure that no output overwrites another output or an input,
+	 * e.g. inputs with the same name from different directories written to the same output directory
+	 * @return true if all output file names are distinct
+	 */
+	private boolean checkOutputFileNames() {
+		Map<File, String> written = new HashMap<>();
+		boolean ok = true;
+
+		for (String fileName : m_files) written.put(new File(fileName).getAbsoluteFile(), null);
+		for (String fileName : m_files) {
+			File out = new File(outputFileName(fileName)).getAbsoluteFile();
+
+			if (written.containsKey(out)) {
+				String other = written.get(out);
+				System.err.println(fileName + ": output " + out + " would overwrite " + ((other != null) ? "the output of " + other : "an input file"));
+				ok = false;
+			} else {
+				written.put(out, fileName);
+			}
+		}
+		return ok;
+	}
+
+	private String outputFileName(String fileName) {
+		File in = new File(fileName);
+		String name = in.getName();
+		int dot = name.lastIndexOf('.');
+		String base = (dot < 0) ? name : name.substring(0, dot);
+		String ext = (m_outExt != null) ? m_outExt : (dot < 0) ? "png" : name.substring(dot + 1);
+
+		if (m_outDir != null) {
+			m_outDir.mkdirs();
+			return new File(m_outDir, base + '.' + ext).getPath();
+		} else {
+			return new File(in.getParentFile(), base + "_out." + ext).getPath();
+		}
+	}
+}
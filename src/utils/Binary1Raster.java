@@ -0,0 +1,79 @@
+package utils;
+
+import org.eclipse.swt.graphics.ImageData;
+
+/**
+ * Raster view of binary images: one bit per pixel, eight pixels per byte.
+ * The leftmost pixel of a byte is its most significant bit (bit order of images created by SWT).
+ * Pixels of the same byte must not be written in parallel.
+ * 
+ */
+public final class Binary1Raster extends Raster {
+	public Binary1Raster(ImageData imageData) {
+		super(imageData, 1);
+	}
+	
+	/**
+	 * Returns bit mask of column u within its byte
+	 * @param u column
+	 * @return
+	 */
+	public int mask(int u) {
+		return 0x80 >>> (u & 7);
+	}
+	
+	/**
+	 * Returns pixel value 0 or 1
+	 * @param u column
+	 * @param v row
+	 * @return
+	 */
+	public int get(int u, int v) {
+		return ((m_data[v*m_stride + (u >> 3)] & mask(u)) != 0) ? 1 : 0;
+	}
+	
+	/**
+	 * Sets pixel value 0 or 1 (only the lowest bit is used)
+	 * @param u column
+	 * @param v row
+	 * @param value
+	 */
+	public void set(int u, int v, int value) {
+		final int i = v*m_stride + (u >> 3);
+		
+		if ((value & 1) != 0) m_data[i] |= mask(u);
+		else m_data[i] &= ~mask(u);
+	}
+	
+	/**
+	 * Copies the pixel values of row v to values
+	 * @param v row
+	 * @param values array of at least m_width elements
+	 */
+	public void getRow(int v, int[] values) {
+		final int row = v*m_stride;
+		
+		for (int u = 0; u < m_width; u++) {
+			values[u] = ((m_data[row + (u >> 3)] & mask(u)) != 0) ? 1 : 0;
+		}
+	}
+	
+	/**
+	 * Copies values to row v. The padding bits of the row are cleared.
+	 * @param v row
+	 * @param values array of at least m_width elements with values 0 or 1
+	 */
+	public void setRow(int v, int[] values) {
+		final int row = v*m_stride;
+		
+		for (int u0 = 0; u0 < m_width; u0 += 8) {
+			final int u1 = Math.min(u0 + 8, m_width);
+			int b = 0;
+			
+			for (int u = u0; u < u1; u++) {
+				if ((values[u] & 1) != 0) b |= mask(u);
+			}
+			m_data[row + (u0 >> 3)] = (byte)b;
+		}
+	}
+}
@@ -8,6 +8,9 @@ import org.eclipse.swt.graphics.PaletteData;
 /**
  * Frequency domain object used to store the result in Fourier Transforms
  * 
+ * The coefficients are stored row by row in two flat arrays of real and imaginary parts:
+ * coefficient (u, v) is at index v*getSpectrumWidth() + u.
+ * 
  * @author Christoph Stamm
  *
  */
@@ -17,32 +20,55 @@ public class FrequencyDomain implements Cloneable {
 	public double m_powerScale;		// scale factor used in power spectrum, 0 = undefined scale
 	public double m_min;			// log of min transformed value
 	public PaletteData m_palette;	// image palette
-	public Complex[][] m_g;			// transformed image
+	public final double[] m_re;		// real parts of the transformed image
+	public final double[] m_im;		// imaginary parts of the transformed image
+	private final int m_specWidth, m_specHeight; // spectrum size
 	
 	/**
+	 * Creates a spectrum of zeros
 	 * @param inData input image
-	 * @param g Fourier coefficients
+	 * @param width output width
+	 * @param height output height
+	 * @param specWidth spectrum width
+	 * @param specHeight spectrum height
 	 */
-	public FrequencyDomain(ImageData inData, Complex[][] g) {
-		m_width = inData.width;
-		m_height = inData.height;
-		m_depth = inData.depth;
-		m_palette = inData.palette;
-		m_g = g;
+	public FrequencyDomain(ImageData inData, int width, int height, int specWidth, int specHeight) {
+		this(inData, width, height, specWidth, specHeight, new double[specWidth*specHeight], new double[specWidth*specHeight]);
 	}
-	
+
 	/**
 	 * @param inData input image
 	 * @param width output width
 	 * @param height output height
-	 * @param g Fourier coefficients
+	 * @param specWidth spectrum width
+	 * @param specHeight spectrum height
+	 * @param re real parts of the Fourier coefficients, row by row
+	 * @param im imaginary parts of the Fourier coefficients, row by row
+	 */
+	public FrequencyDomain(ImageData inData, int width, int height, int specWidth, int specHeight, double[] re, double[] im) {
+		this(width, height, inData.depth, inData.palette, specWidth, specHeight, re, im);
+	}
+
+	/**
+	 * @param width output width
+	 * @param height output height
+	 * @param depth output bit depth
+	 * @param palette output palette
+	 * @param specWidth spectrum width
+	 * @param specHeight spectrum height
+	 * @param re real parts of the Fourier coefficients, row by row
+	 * @param im imaginary parts of the Fourier coefficients, row by row
 	 */
-	public FrequencyDomain(ImageData inData, int width, int height, Complex[][] g) {
+	public FrequencyDomain(int width, int height, int depth, PaletteData palette, int specWidth, int specHeight, double[] re, double[] im) {
+		assert re.length == specWidth*specHeight && im.length == re.length : "wrong spectrum size";
 		m_width = width;
 		m_height = height;
-		m_depth = inData.depth;
-		m_palette = inData.palette;
-		m_g = g;
+		m_depth = depth;
+		m_palette = palette;
+		m_specWidth = specWidth;
+		m_specHeight = specHeight;
+		m_re = re;
+		m_im = im;
 	}
 
 	/**
@@ -50,34 +76,20 @@ public class FrequencyDomain implements Cloneable {
 	 * @param fd
 	 */
 	public FrequencyDomain(FrequencyDomain fd) {
-		m_width = fd.m_width;
-		m_height = fd.m_height;
-		m_depth = fd.m_depth;
-		m_palette = fd.m_palette;
-		m_powerScale = fd.m_powerScale;
-		m_min = fd.m_min;
-		m_g = new Complex[fd.m_g.length][];
-		
-		Parallel.For(0, m_g.length, v -> {
-			m_g[v] = Arrays.copyOf(fd.m_g[v], fd.m_g[v].length);
-		});
-	}
-	
-	private FrequencyDomain() {	
+		this(fd, fd.m_re.clone(), fd.m_im.clone());
 	}
 	
-	private FrequencyDomain(FrequencyDomain fd, boolean dummy) {
+	private FrequencyDomain(FrequencyDomain fd, double[] re, double[] im) {
 		m_width = fd.m_width;
 		m_height = fd.m_height;
 		m_depth = fd.m_depth;
 		m_palette = fd.m_palette;
 		m_powerScale = fd.m_powerScale;
 		m_min = fd.m_min;
-		m_g = new Complex[fd.m_g.length][];	
-		
-		Parallel.For(0, m_g.length, v -> {
-			m_g[v] = new Complex[fd.m_g[v].length];
-		});
+		m_specWidth = fd.m_specWidth;
+		m_specHeight = fd.m_specHeight;
+		m_re = re;
+		m_im = im;
 	}
 	
 	/**
@@ -87,7 +99,8 @@ public class FrequencyDomain implements Cloneable {
 	 * @return amplitude
 	 */
 	public double getAmplitude(int u, int v) {
-		return m_g[v][u].abs();
+		final int i = v*m_specWidth + u;
+		return Math.hypot(m_re[i], m_im[i]);
 	}
 	
 	/**
@@ -97,11 +110,34 @@ public class FrequencyDomain implements Cloneable {
 	 * @return phase
 	 */
 	public double getPhase(int u, int v) {
-		return m_g[v][u].arg();
+		final int i = v*m_specWidth + u;
+		return Math.atan2(m_im[i], m_re[i]);
+	}
+	
+	/**
+	 * Returns the squared amplitude at given position
+	 * @param u x-coordinate
+	 * @param v y-coordinate
+	 * @return power
+	 */
+	public double getPower(int u, int v) {
+		final int i = v*m_specWidth + u;
+		return m_re[i]*m_re[i] + m_im[i]*m_im[i];
 	}
 	
-	public int getSpectrumWidth() { return m_g[0].length; }
-	public int getSpectrumHeight() { return m_g.length; }
+	/**
+	 * Returns a copy of the coefficient at given position
+	 * @param u x-coordinate
+	 * @param v y-coordinate
+	 * @return coefficient
+	 */
+	public Complex getValue(int u, int v) {
+		final int i = v*m_specWidth + u;
+		return new Complex(m_re[i], m_im[i]);
+	}
+	
+	public int getSpectrumWidth() { return m_specWidth; }
+	public int getSpectrumHeight() { return m_specHeight; }
 	
 	/**
 	 * Sets amplitude and phase at given position
@@ -111,7 +147,9 @@ public class FrequencyDomain implements Cloneable {
 	 * @param phi phase
 	 */
 	public void setValue(int u, int v, double amp, double phi) { 
-		m_g[v][u] = new Complex(amp*Math.cos(phi), amp*Math.sin(phi));
+		final int i = v*m_specWidth + u;
+		m_re[i] = amp*Math.cos(phi);
+		m_im[i] = amp*Math.sin(phi);
 	}
 	
 	/**
@@ -121,13 +159,14 @@ public class FrequencyDomain implements Cloneable {
 	public double meanPower() {
 		double[] sum = new double[1];
 		
-		Parallel.For(0, m_g.length, 
+		Parallel.For(0, m_specHeight, 
 			// creator
 			() -> new double[1],
 			// loop body
 			(v, s) -> {
-				for (int u = 0; u < m_g[v].length; u++) {
-					s[0] += m_g[v][u].abs2();
+				final int end = (v + 1)*m_specWidth;
+				for (int i = v*m_specWidth; i < end; i++) {
+					s[0] += m_re[i]*m_re[i] + m_im[i]*m_im[i];
 				}
 			},
 			// reducer
@@ -135,7 +174,7 @@ public class FrequencyDomain implements Cloneable {
 				sum[0] += s[0];
 			}
 		);
-		return sum[0]/getSpectrumWidth()/getSpectrumHeight();
+		return sum[0]/m_specWidth/m_specHeight;
 	}
 
 	@Override
@@ -157,130 +196,102 @@ public class FrequencyDomain implements Cloneable {
 	 * @return specturm with swapped quadrants
 	 */
 	public FrequencyDomain swapQuadrants() {
-		final int w = getSpectrumWidth();
-		final int h = getSpectrumHeight();
-		FrequencyDomain fd = new FrequencyDomain();
-		fd.m_width = m_width;
-		fd.m_height = m_height;
-		fd.m_depth = m_depth;
-		fd.m_palette = m_palette;
-		fd.m_powerScale = m_powerScale;
-		fd.m_min = m_min;
-		fd.m_g = new Complex[h][w];
-		
-		final int w2 = w/2,  w1 = w - w2;
-		final int h2 = h/2, h1 = h - h2;
+		final int w = m_specWidth;
+		final int h = m_specHeight;
+		final FrequencyDomain fd = new FrequencyDomain(this, new double[w*h], new double[w*h]);
+		final int w2 = w/2;
+		final int h2 = h/2;
 
-		Parallel.For(0, h2, v -> {
-			final int h1v = h1 + v;
-			final int h2v = h2 + v;
+		// row v of the result is row (v + h - h2) % h of this, shifted right by w2 columns
+		Parallel.For(0, h, v -> {
+			final int src = ((v + h - h2)%h)*w;
+			final int dst = v*w;
 			
-			for(int u = 0; u < w2; u++) {
-				fd.m_g[v][u] = m_g[h1v][w1 + u];
-				fd.m_g[v][w2 + u] = m_g[h1v][u];
-				fd.m_g[h2v][u] = m_g[v][w1 + u];
-				fd.m_g[h2v][w2 + u] = m_g[v][u];
-			}
+			System.arraycopy(m_re, src, fd.m_re, dst + w2, w - w2);
+			System.arraycopy(m_re, src + w - w2, fd.m_re, dst, w2);
+			System.arraycopy(m_im, src, fd.m_im, dst + w2, w - w2);
+			System.arraycopy(m_im, src + w - w2, fd.m_im, dst, w2);
 		});
-		if (h1 != h2) {
-			final int h22 = h2 << 1;
-			for(int u = 0; u < w2; u++) {
-				fd.m_g[h22][u] = m_g[h2][w1 + u];
-				fd.m_g[h22][w2 + u] = m_g[h2][u];
-			}
-		}
-		if (w1 != w2) {
-			final int w22 = w2 << 1;
-			for(int v = 0; v < h2; v++) {
-				fd.m_g[v][w22] = m_g[h1 + v][w2];
-				fd.m_g[h2 + v][w22] = m_g[v][w2];
-			}
-			if (h1 != h2) {
-				final int h22 = h2 << 1;
-				fd.m_g[h22][w22] = m_g[h2][w2];
-			}
-		}
-		
 		return fd;
 	}
 	
 	public void multiply(int u, int v, double d) {
-		m_g[v][u].multiply(d);
+		final int i = v*m_specWidth + u;
+		m_re[i] *= d;
+		m_im[i] *= d;
 	}
 	
 	public void multiply(double d) {
-		Parallel.For(0, m_g.length, v -> {
-			for(int u = 0; u < m_g[v].length; u++) {
-				m_g[v][u].multiply(d);
+		Parallel.For(0, m_specHeight, v -> {
+			final int end = (v + 1)*m_specWidth;
+			for (int i = v*m_specWidth; i < end; i++) {
+				m_re[i] *= d;
+				m_im[i] *= d;
 			}
 		});
 	}
 	
 	public void multiply(FrequencyDomain fd) {
-		assert m_g.length == fd.m_g.length;
-		
-		Parallel.For(0, m_g.length, v -> {
-			assert m_g[v].length == fd.m_g[v].length;
-			for(int u = 0; u < m_g[v].length; u++) {
-				m_g[v][u].multiply(fd.m_g[v][u]);
-			}
-		});
+		mul(fd, this);
 	}
 
 	public FrequencyDomain mul(double d) {
-		FrequencyDomain fd = new FrequencyDomain(this, true);
+		FrequencyDomain fd = clone();
 		
-		Parallel.For(0, m_g.length, v -> {
-			for(int u = 0; u < m_g[v].length; u++) {
-				fd.m_g[v][u] = m_g[v][u].mul(d);
-			}
-		});
+		fd.multiply(d);
 		return fd;
 	}
 	
 	public FrequencyDomain mul(FrequencyDomain fd2) {
-		assert m_g.length == fd2.m_g.length;
-		FrequencyDomain fd = new FrequencyDomain(this, true);
-		
-		Parallel.For(0, m_g.length, v -> {
-			assert m_g[v].length == fd2.m_g[v].length;
-			for(int u = 0; u < m_g[v].length; u++) {
-				fd.m_g[v][u] = m_g[v][u].mul(fd2.m_g[v][u]);
-			}
-		});
-		return fd;
+		return mul(fd2, new FrequencyDomain(this, new double[m_re.length], new double[m_im.length]));
 	}
 
 	public void divide(FrequencyDomain fd) {
-		assert m_g.length == fd.m_g.length;
-
-		Parallel.For(0, m_g.length, v -> {
-			assert m_g[v].length == fd.m_g[v].length;
-			for(int u = 0; u < m_g[v].length; u++) {
-				if (fd.m_g[v][u].abs2() == 0) {
-					// division by zero
-					m_g[v][u].m_re = 0;
-					m_g[v][u].m_im = 0;
-				} else {
-					m_g[v][u].divide(fd.m_g[v][u]);
-				}
-			}
-		});
+		div(fd, this);
 	}
 		
 	public FrequencyDomain div(FrequencyDomain fd2) {
-		assert m_g.length == fd2.m_g.length;
-		FrequencyDomain fd = new FrequencyDomain(this, true);
+		return div(fd2, new FrequencyDomain(this, new double[m_re.length], new double[m_im.length]));
+	}
+	
+	/**
+	 * Pointwise complex multiplication of this and fd2, stored in fd
+	 */
+	private FrequencyDomain mul(FrequencyDomain fd2, FrequencyDomain fd) {
+		assert m_re.length == fd2.m_re.length;
 		
-		Parallel.For(0, m_g.length, v -> {
-			assert m_g[v].length == fd2.m_g[v].length;
-			for(int u = 0; u < m_g[v].length; u++) {
-				if (fd2.m_g[v][u].abs2() == 0) {
+		Parallel.For(0, m_specHeight, v -> {
+			final int end = (v + 1)*m_specWidth;
+			for (int i = v*m_specWidth; i < end; i++) {
+				final double re = m_re[i]*fd2.m_re[i] - m_im[i]*fd2.m_im[i];
+				final double im = m_re[i]*fd2.m_im[i] + m_im[i]*fd2.m_re[i];
+				fd.m_re[i] = re;
+				fd.m_im[i] = im;
+			}
+		});
+		return fd;
+	}
+
+	/**
+	 * Pointwise complex division of this by fd2, stored in fd. Division by zero results in zero.
+	 */
+	private FrequencyDomain div(FrequencyDomain fd2, FrequencyDomain fd) {
+		assert m_re.length == fd2.m_re.length;
+
+		Parallel.For(0, m_specHeight, v -> {
+			final int end = (v + 1)*m_specWidth;
+			for (int i = v*m_specWidth; i < end; i++) {
+				final double d = fd2.m_re[i]*fd2.m_re[i] + fd2.m_im[i]*fd2.m_im[i];
+				
+				if (d == 0) {
 					// division by zero
-					m_g[v][u].m_re = 0;
-					m_g[v][u].m_im = 0;
+					fd.m_re[i] = 0;
+					fd.m_im[i] = 0;
 				} else {
-					fd.m_g[v][u] = m_g[v][u].div(fd2.m_g[v][u]);
+					final double re = (m_re[i]*fd2.m_re[i] + m_im[i]*fd2.m_im[i])/d;
+					final double im = (m_im[i]*fd2.m_re[i] - m_re[i]*fd2.m_im[i])/d;
+					fd.m_re[i] = re;
+					fd.m_im[i] = im;
 				}
 			}
 		});
@@ -296,13 +307,8 @@ public class FrequencyDomain implements Cloneable {
 			if (m_powerScale != fd.m_powerScale) return false;
 			if (m_min != fd.m_min) return false;
 			if (m_palette != fd.m_palette) return false;
-			for(int i = 0; i < m_height; i++) {
-				for(int j = 0; j < m_width; j++) {
-					if (!m_g[i][j].equals(fd.m_g[i][j])) 
-						return false;
-				}
-			}
-			return true;
+			if (m_specWidth != fd.m_specWidth) return false;
+			return Arrays.equals(m_re, fd.m_re) && Arrays.equals(m_im, fd.m_im);
 		} else {
 			return false;
 		}
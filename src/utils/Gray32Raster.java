@@ -0,0 +1,67 @@
+package utils;
+
+import org.eclipse.swt.graphics.ImageData;
+
+/**
+ * Raster view of 32 bit images: four bytes per pixel, most significant byte first (same as ImageData.getPixel)
+ * 
+ */
+public final class Gray32Raster extends Raster {
+	public Gray32Raster(ImageData imageData) {
+		super(imageData, 32);
+	}
+	
+	/**
+	 * Returns pixel value
+	 * @param u column
+	 * @param v row
+	 * @return
+	 */
+	public int get(int u, int v) {
+		final int i = v*m_stride + 4*u;
+		
+		return (m_data[i] << 24) | ((m_data[i + 1] & 0xFF) << 16) | ((m_data[i + 2] & 0xFF) << 8) | (m_data[i + 3] & 0xFF);
+	}
+	
+	/**
+	 * Sets pixel value
+	 * @param u column
+	 * @param v row
+	 * @param value
+	 */
+	public void set(int u, int v, int value) {
+		final int i = v*m_stride + 4*u;
+		
+		m_data[i]     = (byte)(value >>> 24);
+		m_data[i + 1] = (byte)(value >>> 16);
+		m_data[i + 2] = (byte)(value >>> 8);
+		m_data[i + 3] = (byte)value;
+	}
+	
+	/**
+	 * Copies the pixel values of row v to values
+	 * @param v row
+	 * @param values array of at least m_width elements
+	 */
+	public void getRow(int v, int[] values) {
+		for (int u = 0, i = v*m_stride; u < m_width; u++, i += 4) {
+			values[u] = (m_data[i] << 24) | ((m_data[i + 1] & 0xFF) << 16) | ((m_data[i + 2] & 0xFF) << 8) | (m_data[i + 3] & 0xFF);
+		}
+	}
+	
+	/**
+	 * Copies values to row v
+	 * @param v row
+	 * @param values array of at least m_width elements
+	 */
+	public void setRow(int v, int[] values) {
+		for (int u = 0, i = v*m_stride; u < m_width; u++, i += 4) {
+			final int value = values[u];
+			
+			m_data[i]     = (byte)(value >>> 24);
+			m_data[i + 1] = (byte)(value >>> 16);
+			m_data[i + 2] = (byte)(value >>> 8);
+			m_data[i + 3] = (byte)value;
+		}
+	}
+}
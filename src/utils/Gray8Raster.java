@@ -0,0 +1,59 @@
+package utils;
+
+import org.eclipse.swt.graphics.ImageData;
+
+/**
+ * Raster view of 8 bit images (grayscale or indexed): one byte per pixel
+ * 
+ */
+public final class Gray8Raster extends Raster {
+	public Gray8Raster(ImageData imageData) {
+		super(imageData, 8);
+	}
+	
+	/**
+	 * Returns pixel value in range [0, 255]
+	 * @param u column
+	 * @param v row
+	 * @return
+	 */
+	public int get(int u, int v) {
+		return m_data[v*m_stride + u] & 0xFF;
+	}
+	
+	/**
+	 * Sets pixel value (only the lowest 8 bits are used)
+	 * @param u column
+	 * @param v row
+	 * @param value
+	 */
+	public void set(int u, int v, int value) {
+		m_data[v*m_stride + u] = (byte)value;
+	}
+	
+	/**
+	 * Copies the pixel values of row v to values
+	 * @param v row
+	 * @param values array of at least m_width elements
+	 */
+	public void getRow(int v, int[] values) {
+		final int row = v*m_stride;
+		
+		for (int u = 0; u < m_width; u++) {
+			values[u] = m_data[row + u] & 0xFF;
+		}
+	}
+	
+	/**
+	 * Copies values to row v
+	 * @param v row
+	 * @param values array of at least m_width elements
+	 */
+	public void setRow(int v, int[] values) {
+		final int row = v*m_stride;
+		
+		for (int u = 0; u < m_width; u++) {
+			m_data[row + u] = (byte)values[u];
+		}
+	}
+}
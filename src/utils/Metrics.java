@@ -0,0 +1,333 @@
+package utils;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Timing and allocation metrics of image operations.
+ * 
+ * A measurement records wall time, CPU time, allocated bytes and image size of one operation.
+ * CPU time and allocated bytes include the calling thread and the worker threads of the parallel loops 
+ * executed under the control of the operation's ProgressMonitor.
+ * Finished measurements are kept in a rolling log of the most recent records and are emitted 
+ * as JFR events of type picsi.ImageOperation.
+ * <pre>
+ * ProgressMonitor monitor = new ProgressMonitor();
+ * Metrics.Measurement m = Metrics.start("Median", "size=5", inData.width, inData.height, monitor);
+ * ImageData outData = monitor.run(() -> filter.run(inData, imageType, params));
+ * Metrics.Record r = m.stop();
+ * </pre>
+ */
+public class Metrics {
+	public static final int DefaultLogCapacity = 1000;
+	
+	/**
+	 * Metrics of a finished operation
+	 */
+	public static class Record {
+		public final String m_operation;
+		public final String m_parameters;		// parameters in string form, can be empty
+		public final int m_width, m_height;		// input image size
+		public final long m_timestamp;			// start time in ms since 1970
+		public final long m_wallTime;			// ns
+		public final long m_cpuTime;			// ns, sum of all participating threads
+		public final long m_allocatedBytes;		// sum of all participating threads
+		
+		private Record(String operation, String parameters, int width, int height, long timestamp, long wallTime, long cpuTime, long allocatedBytes) {
+			m_operation = operation;
+			m_parameters = parameters;
+			m_width = width;
+			m_height = height;
+			m_timestamp = timestamp;
+			m_wallTime = wallTime;
+			m_cpuTime = cpuTime;
+			m_allocatedBytes = allocatedBytes;
+		}
+		
+		public double megapixels() {
+			return (double)m_width*m_height*1e-6;
+		}
+		
+		/**
+		 * Returns the throughput
+		 * @return megapixels per second of wall time
+		 */
+		public double megapixelsPerSecond() {
+			return (m_wallTime > 0) ? megapixels()/(m_wallTime*1e-9) : 0;
+		}
+		
+		/**
+		 * Returns a short human readable form, e.g. "Median: 120.5 ms, CPU 850.2 ms, 24.0 MB, 99.6 MP/s"
+		 */
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "%s: %.1f ms, CPU %.1f ms, %.1f MB, %.2f MP/s", 
+					m_operation, m_wallTime*1e-6, m_cpuTime*1e-6, m_allocatedBytes/(1024.0*1024), megapixelsPerSecond());
+		}
+		
+		/**
+		 * Returns the record as JSON object
+		 * @return
+		 */
+		public String toJSON() {
+			return String.format(Locale.ROOT, 
+					"{\"operation\":%s,\"parameters\":%s,\"width\":%d,\"height\":%d,\"timestamp\":%d,\"wallTimeNs\":%d,\"cpuTimeNs\":%d,\"allocatedBytes\":%d,\"megapixelsPerSecond\":%.3f}",
+					quote(m_operation), quote(m_parameters), m_width, m_height, m_timestamp, m_wallTime, m_cpuTime, m_allocatedBytes, megapixelsPerSecond());
+		}
+	}
+	
+	/**
+	 * Running measurement
+	 */
+	public static class Measurement {
+		private final OperationEvent m_event = new OperationEvent();
+		private final String m_operation, m_parameters;
+		private final int m_width, m_height;
+		private final ProgressMonitor m_monitor;
+		private final long m_timestamp, m_start, m_cpu, m_bytes, m_workerCpu, m_workerBytes;
+		
+		private Measurement(String operation, String parameters, int width, int height, ProgressMonitor monitor) {
+			m_operation = operation;
+			m_parameters = (parameters == null) ? "" : parameters;
+			m_width = width;
+			m_height = height;
+			m_monitor = monitor;
+			m_workerCpu = (monitor == null) ? 0 : monitor.getWorkerCpuTime();
+			m_workerBytes = (monitor == null) ? 0 : monitor.getWorkerAllocatedBytes();
+			m_timestamp = System.currentTimeMillis();
+			m_cpu = currentThreadCpuTime();
+			m_bytes = currentThreadAllocatedBytes();
+			m_event.begin();
+			m_start = System.nanoTime();
+		}
+		
+		/**
+		 * Stops the measurement in the thread that has started it, adds the record to the log and commits the JFR event
+		 * @return metrics of the operation
+		 */
+		public Record stop() {
+			final long wall = System.nanoTime() - m_start;
+			long cpu = currentThreadCpuTime() - m_cpu;
+			long bytes = currentThreadAllocatedBytes() - m_bytes;
+			
+			m_event.end();
+			if (m_monitor != null) {
+				cpu += m_monitor.getWorkerCpuTime() - m_workerCpu;
+				bytes += m_monitor.getWorkerAllocatedBytes() - m_workerBytes;
+			}
+			
+			final Record r = new Record(m_operation, m_parameters, m_width, m_height, m_timestamp, wall, cpu, bytes);
+			
+			if (m_event.shouldCommit()) {
+				m_event.operation = r.m_operation;
+				m_event.parameters = r.m_parameters;
+				m_event.width = r.m_width;
+				m_event.height = r.m_height;
+				m_event.cpuTime = r.m_cpuTime;
+				m_event.allocated = r.m_allocatedBytes;
+				m_event.megapixelsPerSecond = r.megapixelsPerSecond();
+				m_event.commit();
+			}
+			synchronized(s_log) {
+				while (s_log.size() >= s_logCapacity) s_log.removeFirst();
+				s_log.addLast(r);
+			}
+			return r;
+		}
+	}
+	
+	@Name("picsi.ImageOperation")
+	@Label("Image Operation")
+	@Category("Picsi")
+	@Description("Execution of an image processor")
+	static class OperationEvent extends Event {
+		@Label("Operation")
+		String operation;
+		
+		@Label("Parameters")
+		String parameters;
+		
+		@Label("Width")
+		int width;
+		
+		@Label("Height")
+		int height;
+		
+		@Label("CPU Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long cpuTime;
+		
+		@Label("Allocated")
+		@DataAmount
+		long allocated;
+		
+		@Label("Megapixels per Second")
+		double megapixelsPerSecond;
+	}
+	
+	private static final ArrayDeque<Record> s_log = new ArrayDeque<>();
+	private static int s_logCapacity = DefaultLogCapacity;	// guarded by s_log
+	private static final ThreadMXBean s_threads = ManagementFactory.getThreadMXBean();
+	private static final boolean s_cpuTimeSupported = s_threads.isCurrentThreadCpuTimeSupported();
+	private static final com.sun.management.ThreadMXBean s_allocations = 
+			(s_threads instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean)s_threads).isThreadAllocatedMemorySupported()) 
+			? (com.sun.management.ThreadMXBean)s_threads : null;
+	
+	/**
+	 * Starts a measurement in the current thread
+	 * @param operation operation name
+	 * @param parameters parameters in string form or null
+	 * @param width input image width
+	 * @param height input image height
+	 * @param monitor monitor the operation is executed with, or null if only the current thread has to be measured
+	 * @return running measurement
+	 */
+	public static Measurement start(String operation, String parameters, int width, int height, ProgressMonitor monitor) {
+		return new Measurement(operation, parameters, width, height, monitor);
+	}
+	
+	/**
+	 * Returns the rolling log
+	 * @return copy of the log, oldest record first
+	 */
+	public static List<Record> getLog() {
+		synchronized(s_log) {
+			return new ArrayList<>(s_log);
+		}
+	}
+	
+	public static int getLogCapacity() {
+		synchronized(s_log) {
+			return s_logCapacity;
+		}
+	}
+	
+	/**
+	 * Sets the maximum number of records in the rolling log. Older records are dropped.
+	 * @param capacity > 0
+	 */
+	public static void setLogCapacity(int capacity) {
+		assert capacity > 0 : "capacity must be positive: " + capacity;
+		
+		synchronized(s_log) {
+			s_logCapacity = capacity;
+			while (s_log.size() > s_logCapacity) s_log.removeFirst();
+		}
+	}
+	
+	public static void clearLog() {
+		synchronized(s_log) {
+			s_log.clear();
+		}
+	}
+	
+	/**
+	 * Returns one line per operation of the log with number of runs, mean wall time and overall throughput
+	 * @return
+	 */
+	public static String summary() {
+		final Map<String, long[]> ops = new LinkedHashMap<>(); // runs, wall time, pixels, cpu time
+		final StringBuilder sb = new StringBuilder();
+		
+		for (Record r : getLog()) {
+			long[] s = ops.computeIfAbsent(r.m_operation, k -> new long[4]);
+			s[0]++;
+			s[1] += r.m_wallTime;
+			s[2] += (long)r.m_width*r.m_height;
+			s[3] += r.m_cpuTime;
+		}
+		for (Map.Entry<String, long[]> e : ops.entrySet()) {
+			final long[] s = e.getValue();
+			
+			sb.append(String.format(Locale.ROOT, "%s: %d runs, mean %.1f ms, CPU %.1f ms, %.2f MP/s%n", 
+					e.getKey(), s[0], s[1]*1e-6/s[0], s[3]*1e-6/s[0], (s[1] > 0) ? s[2]*1e3/s[1] : 0));
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Writes the log as JSON array
+	 * @param w writer
+	 * @throws IOException
+	 */
+	public static void writeJSON(Writer w) throws IOException {
+		final List<Record> log = getLog();
+		
+		w.write("[\n");
+		for (int i = 0; i < log.size(); i++) {
+			w.write("  ");
+			w.write(log.get(i).toJSON());
+			w.write((i + 1 < log.size()) ? ",\n" : "\n");
+		}
+		w.write("]\n");
+	}
+	
+	/**
+	 * Writes the log as JSON array into a file
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public static void writeJSON(String fileName) throws IOException {
+		try (Writer w = new FileWriter(fileName)) {
+			writeJSON(w);
+		}
+	}
+	
+	/**
+	 * Returns the CPU time of the current thread
+	 * @return ns or 0 if not supported
+	 */
+	public static long currentThreadCpuTime() {
+		return s_cpuTimeSupported ? s_threads.getCurrentThreadCpuTime() : 0;
+	}
+	
+	/**
+	 * Returns the number of bytes allocated by the current thread so far
+	 * @return bytes or 0 if not supported
+	 */
+	public static long currentThreadAllocatedBytes() {
+		return (s_allocations != null) ? s_allocations.getCurrentThreadAllocatedBytes() : 0;
+	}
+	
+	/**
+	 * Quotes a string as JSON string
+	 * @param s
+	 * @return quoted and escaped string
+	 */
+	public static String quote(String s) {
+		final StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+		
+		for (int i = 0; i < s.length(); i++) {
+			final char c = s.charAt(i);
+			
+			switch(c) {
+			case '"': sb.append("\\\""); break;
+			case '\\': sb.append("\\\\"); break;
+			case '\n': sb.append("\\n"); break;
+			case '\r': sb.append("\\r"); break;
+			case '\t': sb.append("\\t"); break;
+			default:
+				if (c < 0x20) sb.append(String.format("\\u%04x", (int)c));
+				else sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+}
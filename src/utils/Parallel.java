@@ -2,11 +2,23 @@ package utils;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.*;
+import java.util.RandomAccess;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Parallel for loop
  * 
+ * All loops share one long-lived work-stealing thread pool. A range is split recursively into tasks
+ * of an adaptive grain size (several tasks per worker thread), such that idle workers can steal work.
+ * Small ranges are executed sequentially in the calling thread (see setSequentialCutoff). Exceptions thrown in a loop body 
+ * are propagated to the caller.
+ * Loops executed under the control of a ProgressMonitor report the progress of the outermost loop and 
+ * stop with a CancellationException as soon as the monitor has been canceled.
+ * The parallelism can be set with the system property picsi.parallelism or with setParallelism.
+ * 
  * @author Christoph Stamm
  *
  */
@@ -31,12 +43,118 @@ public class Parallel {
 	    void run(T data);
 	}
 	
-	private static class ReductionData<T> {
-		Future<?> future;
-		T data;
+	public static interface TileBody {
+	    void run(int x0, int y0, int x1, int y1);
+	}
+	
+	/**
+	 * Recursively split range of loop indices [lo, hi). Loop index k corresponds to value start + k*delta.
+	 */
+	private static class ForTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final int m_start, m_delta, m_grain;
+		private final int m_lo, m_hi;
+		private final IntLoopBody m_loopBody;
+		private final ProgressMonitor m_monitor;	// null: loop is not monitored
+		private final boolean m_outermost;			// true: each iteration advances the progress
+		
+		private ForTask(int start, int delta, int grain, int lo, int hi, IntLoopBody loopBody, ProgressMonitor monitor, boolean outermost) {
+			m_start = start;
+			m_delta = delta;
+			m_grain = grain;
+			m_lo = lo;
+			m_hi = hi;
+			m_loopBody = loopBody;
+			m_monitor = monitor;
+			m_outermost = outermost;
+		}
+		
+		@Override
+		protected void compute() {
+			if (m_hi - m_lo <= m_grain) {
+				if (m_monitor == null) {
+					for (int k = m_lo; k < m_hi; k++) {
+						m_loopBody.run(m_start + k*m_delta);
+					}
+				} else {
+					// nested loops of the loop body are monitored, but they are not outermost
+					final ProgressMonitor outer = ProgressMonitor.enter(m_monitor);
+					final int[] depth = s_depth.get();
+					// a worker thread accounts its resources, unless it already executes a monitored loop body
+					final boolean account = depth[0] == 0 && !m_monitor.isOperationThread();
+					final long cpu = account ? Metrics.currentThreadCpuTime() : 0;
+					final long bytes = account ? Metrics.currentThreadAllocatedBytes() : 0;
+					
+					depth[0]++;
+					try {
+						for (int k = m_lo; k < m_hi; k++) {
+							m_monitor.checkCanceled();
+							m_loopBody.run(m_start + k*m_delta);
+							if (m_outermost) m_monitor.worked();
+						}
+					} finally {
+						depth[0]--;
+						ProgressMonitor.enter(outer);
+						if (account) {
+							m_monitor.addWorkerUsage(Metrics.currentThreadCpuTime() - cpu, Metrics.currentThreadAllocatedBytes() - bytes);
+						}
+					}
+				}
+			} else {
+				final int mid = (m_lo + m_hi) >>> 1;
+				invokeAll(new ForTask(m_start, m_delta, m_grain, m_lo, mid, m_loopBody, m_monitor, m_outermost), 
+						  new ForTask(m_start, m_delta, m_grain, mid, m_hi, m_loopBody, m_monitor, m_outermost));
+			}
+		}
 	}
 	
 	static final int nCPU = Runtime.getRuntime().availableProcessors();
+	static final int TasksPerThread = 4;		// number of tasks per worker thread used for load balancing
+	static final int TileBytes = 64*1024;	// working set of an auto-sized tile: input and output tile fit into L2 cache
+	static final int TileAlign = 16;		// tile sizes are multiples of TileAlign: tiles of packed images never share bytes
+	
+	private static ForkJoinPool s_pool = new ForkJoinPool(Integer.getInteger("picsi.parallelism", nCPU));
+	private static int s_sequentialCutoff = 0;	// ranges with less iterations are executed in the calling thread, 0: automatic
+	private static final ThreadLocal<int[]> s_depth = ThreadLocal.withInitial(() -> new int[1]); // nesting depth of monitored loops
+	
+	/**
+	 * Returns the number of worker threads
+	 * @return
+	 */
+	public static int getParallelism() {
+		return s_pool.getParallelism();
+	}
+	
+	/**
+	 * Replaces the shared thread pool by a new pool with the given number of worker threads.
+	 * Should not be called while parallel loops are running.
+	 * @param parallelism > 0
+	 */
+	public static synchronized void setParallelism(int parallelism) {
+		assert parallelism > 0 : "parallelism must be positive: " + parallelism;
+		
+		if (parallelism != s_pool.getParallelism()) {
+			ForkJoinPool old = s_pool;
+			s_pool = new ForkJoinPool(parallelism);
+			old.shutdown();
+		}
+	}
+	
+	/**
+	 * Sets the minimum number of iterations of a parallel loop. Smaller ranges are executed sequentially.
+	 * The automatic cutoff distinguishes outermost and nested loops. Outermost loops are split from two iterations on,
+	 * because the coarse loops of the processors (strips, blocks, patterns, accumulators) have few but long iterations.
+	 * Loops nested in the body of another parallel loop are executed sequentially if they have less iterations than 
+	 * worker threads: the other tasks of the enclosing loop keep the workers busy, and such a loop couldn't provide a 
+	 * task for each worker anyway. Handing a short range to the pool costs about 1 us in a worker thread and 10 us in
+	 * an outside thread.
+	 * @param cutoff minimum number of iterations, 0: automatic
+	 */
+	public static void setSequentialCutoff(int cutoff) {
+		assert cutoff >= 0 : "cutoff must not be negative: " + cutoff;
+		s_sequentialCutoff = cutoff;
+	}
 
 	/**
 	 * Parallel for each: executes the loopBody for each item in the collection
@@ -44,21 +162,15 @@ public class Parallel {
 	 * @param loopBody
 	 */
 	public static <T> void forEach(Iterable <T> collection, final LoopBody<T> loopBody) {
-	    ExecutorService executor = Executors.newFixedThreadPool(nCPU);
-	    List<Future<?>> futures  = new ArrayList<Future<?>>(nCPU);
-
-	    for (final T param : collection) {
-	    	futures.add(executor.submit(() -> loopBody.run(param) ));
-	    }
-
-        for (Future<?> f : futures) {
-        	try { 
-        		f.get();
-		    } catch (InterruptedException | ExecutionException e) { 
-		    	System.out.println(e); 
-		    }
-        }
-	    executor.shutdown();     
+		final List<T> list;
+		
+		if (collection instanceof List && collection instanceof RandomAccess) {
+			list = (List<T>)collection;
+		} else {
+			list = new ArrayList<T>();
+			for (T param : collection) list.add(param);
+		}
+		For(0, list.size(), i -> loopBody.run(list.get(i)));
 	}
 
 	/**
@@ -77,64 +189,24 @@ public class Parallel {
 	 * @param stop
 	 * @param delta if start < stop then delta has to be positive, if start > stop then delta must be negative
 	 * @param loopBody
+	 * @throws CancellationException if the loop is monitored and the monitor has been canceled
 	 */
 	public static void For(int start, int stop, int delta, final IntLoopBody loopBody) {
-		assert delta != 0 : "delta must be not 0: " + delta;
+		final int n = iterations(start, stop, delta);
 		
-		if (start == stop) return;
+		if (n == 0) return;
 		
-		ExecutorService executor = null;
-		List<Future<?>> futures = null;
+		final ForkJoinPool pool = s_pool;
+		final ProgressMonitor monitor = ProgressMonitor.current();
+		final boolean outermost = beginPass(monitor, n);
 		
-		if (start < stop) {
-			assert delta > 0 : "delta must be positive: " + delta;
-		    int chunkSize = (stop - start + nCPU - 1)/nCPU;
-		    int rest = chunkSize%delta;
-		    if (rest != 0) chunkSize += delta - rest;
-	        final int nThreads = (stop - start + chunkSize - 1)/chunkSize;
-	        executor = Executors.newFixedThreadPool(nThreads);
-	        futures  = new ArrayList<Future<?>>(nThreads);
-	
-	        for (int i=start; i < stop; ) {
-	            final int iStart = i;
-	            i += chunkSize;
-	            final int iStop = (i < stop) ? i : stop;
-	            
-		        futures.add(executor.submit(() -> {
-	            	for (int j = iStart; j < iStop; j += delta) 
-	            		loopBody.run(j);
-	            }));     
-		    }
+		if (n < sequentialCutoff(pool) || pool.getParallelism() == 1) {
+			new ForTask(start, delta, n, 0, n, loopBody, monitor, outermost).compute();
 		} else {
-			// start > stop
-			assert delta < 0 : "delta must be negative: " + delta;
-		    int chunkSize = (start - stop + nCPU - 1)/nCPU;
-		    int rest = chunkSize%delta;
-		    if (rest != 0) chunkSize -= delta + rest;
-	        final int nThreads = (start - stop + chunkSize - 1)/chunkSize;
-	        executor = Executors.newFixedThreadPool(nThreads);
-	        futures  = new ArrayList<Future<?>>(nThreads);
-	
-	        for (int i=start; i > stop; ) {
-	            final int iStart = i;
-	            i -= chunkSize;
-	            final int iStop = (i > stop) ? i : stop;
-	            
-		        futures.add(executor.submit(() -> {
-	            	for (int j = iStart; j > iStop; j += delta) 
-	            		loopBody.run(j);
-	            }));  
-	        }
+			final int grain = Math.max(1, n/(pool.getParallelism()*TasksPerThread));
+			
+			invoke(pool, new ForTask(start, delta, grain, 0, n, loopBody, monitor, outermost));
 		}
-
-        for (Future<?> f : futures) {
-        	try { 
-        		f.get();
-		    } catch (InterruptedException | ExecutionException e) { 
-		    	System.out.println(e); 
-		    }
-        }
-	    executor.shutdown();     
 	}
 
 	/**
@@ -153,82 +225,160 @@ public class Parallel {
 	/**
 	 * Parallel for: executes the loopBody for each int value in the semi-open range [start, stop) with step size delta
 	 * and performs a reduction.
+	 * The range is divided into at most one chunk per worker thread. Each chunk gets its own temporary reduction data.
+	 * The reducer is called sequentially in the calling thread.
 	 * @param start != stop
 	 * @param stop
 	 * @param delta if start < stop then delta has to be positive, if start > stop then delta must be negative
 	 * @param creator initializes temporary reduction data
 	 * @param loopBody
 	 * @param reducer computes reduction of temporary reduction data and stores it in external result
+	 * @throws CancellationException if the loop is monitored and the monitor has been canceled
 	 */
 	public static <T> void For(int start, int stop, int delta, final RedDataCreator<T> creator, final RedLoopBody<T> loopBody, final Reducer<T> reducer) {
-		assert delta != 0 : "delta must be not 0: " + delta;
+		final int n = iterations(start, stop, delta);
+		
+		if (n == 0) return;
+		
+		final ForkJoinPool pool = s_pool;
+		final ProgressMonitor monitor = ProgressMonitor.current();
+		final boolean outermost = beginPass(monitor, n);
+		final int nChunks = (n < sequentialCutoff(pool)) ? 1 : Math.min(n, pool.getParallelism());
+		final List<T> redData = new ArrayList<T>(nChunks);
+		
+		for (int c = 0; c < nChunks; c++) {
+			redData.add(creator.run());
+		}
+		
+		// the chunk task doesn't report progress itself, because a chunk consists of many iterations
+		final ForTask task = new ForTask(0, 1, 1, 0, nChunks, c -> {
+			final T data = redData.get(c);
+			final int kStop = (int)((long)(c + 1)*n/nChunks);
+			
+			for (int k = (int)((long)c*n/nChunks); k < kStop; k++) {
+				if (monitor != null) monitor.checkCanceled();
+				loopBody.run(start + k*delta, data);
+				if (outermost) monitor.worked();
+			}
+		}, monitor, false);
+		
+		if (nChunks == 1) {
+			task.compute();
+		} else {
+			invoke(pool, task);
+		}
+		for (T data : redData) {
+			if (data != null) {
+				reducer.run(data);
+			}
+		}
+	}
+	
+	/**
+	 * Parallel 2D loop: executes the tileBody for each tile of a width x height area.
+	 * A tile is given by the semi-open ranges [x0, x1) and [y0, y1).
+	 * @param width
+	 * @param height
+	 * @param tileW tile width > 0
+	 * @param tileH tile height > 0
+	 * @param tileBody
+	 */
+	public static void forTiles(int width, int height, int tileW, int tileH, final TileBody tileBody) {
+		assert tileW > 0 && tileH > 0 : "tile sizes must be positive: " + tileW + ", " + tileH;
+		
+		if (width <= 0 || height <= 0) return;
 		
-		if (start == stop) return;
+		final int nx = (width + tileW - 1)/tileW;
+		final int ny = (height + tileH - 1)/tileH;
 		
-		ExecutorService executor = null;
-		List<ReductionData<T>> redData = null;
+		For(0, nx*ny, t -> {
+			final int x0 = (t%nx)*tileW;
+			final int y0 = (t/nx)*tileH;
+			
+			tileBody.run(x0, y0, Math.min(x0 + tileW, width), Math.min(y0 + tileH, height));
+		});
+	}
+	
+	/**
+	 * Parallel 2D loop with square tiles of automatically selected size.
+	 * The tile size is chosen such that a tile of pixels with the given size fits into the L2 cache.
+	 * @param width
+	 * @param height
+	 * @param bytesPerPixel size of a pixel in bytes
+	 * @param tileBody
+	 */
+	public static void forTiles(int width, int height, int bytesPerPixel, final TileBody tileBody) {
+		final int size = tileSize(bytesPerPixel);
+		
+		forTiles(width, height, size, size, tileBody);
+	}
+	
+	/**
+	 * Returns the side length of an automatically sized square tile
+	 * @param bytesPerPixel size of a pixel in bytes
+	 * @return multiple of 16
+	 */
+	public static int tileSize(int bytesPerPixel) {
+		final int side = (int)Math.sqrt(TileBytes/Math.max(1, bytesPerPixel));
+		
+		return Math.max(TileAlign, side/TileAlign*TileAlign);
+	}
+	
+	/**
+	 * Returns the number of loop iterations
+	 * @param start
+	 * @param stop
+	 * @param delta
+	 * @return
+	 */
+	private static int iterations(int start, int stop, int delta) {
+		assert delta != 0 : "delta must be not 0: " + delta;
 		
+		if (start == stop) return 0;
 		if (start < stop) {
 			assert delta > 0 : "delta must be positive: " + delta;
-		    int chunkSize = (stop - start + nCPU - 1)/nCPU;
-		    int rest = chunkSize%delta;
-		    if (rest != 0) chunkSize += delta - rest;
-	        final int nThreads = (stop - start + chunkSize - 1)/chunkSize;
-	        executor = Executors.newFixedThreadPool(nThreads);
-	        redData  = new ArrayList<ReductionData<T>>(nThreads);
-	
-	        for (int i = start; i < stop; ) {
-	            final int iStart = i;
-	            i += chunkSize;
-	            final int iStop = (i < stop) ? i : stop;
-	            final ReductionData<T> rd = new ReductionData<T>();
-	                        
-	            rd.data = creator.run();
-		        rd.future = executor.submit(() -> {
-		            for (int j = iStart; j < iStop; j += delta) {
-		            	loopBody.run(j, rd.data);
-		            }
-		        });
-		        redData.add(rd);
-		    }
+			return (int)(((long)stop - start + delta - 1)/delta);
 		} else {
-			// start > stop
 			assert delta < 0 : "delta must be negative: " + delta;
-		    int chunkSize = (start - stop + nCPU - 1)/nCPU;
-		    int rest = chunkSize%delta;
-		    if (rest != 0) chunkSize -= delta + rest;
-	        final int nThreads = (start - stop + chunkSize - 1)/chunkSize;
-	        executor = Executors.newFixedThreadPool(nThreads);
-	        redData  = new ArrayList<ReductionData<T>>(nThreads);
-	
-	        for (int i = start; i > stop; ) {
-	            final int iStart = i;
-	            i -= chunkSize;
-	            final int iStop = (i > stop) ? i : stop;
-	            final ReductionData<T> rd = new ReductionData<T>();
-	                        
-	            rd.data = creator.run();
-		        rd.future = executor.submit(() -> {
-		            for (int j = iStart; j > iStop; j += delta) {
-		            	loopBody.run(j, rd.data);
-		            }
-		        });
-		        redData.add(rd);
-		    }
+			return (int)(((long)start - stop - delta - 1)/-delta);
+		}
+	}
+	
+	/**
+	 * Returns the minimum number of iterations of a parallel loop (see setSequentialCutoff)
+	 * @param pool
+	 * @return
+	 */
+	private static int sequentialCutoff(ForkJoinPool pool) {
+		if (s_sequentialCutoff > 0) return s_sequentialCutoff;
+		return ForkJoinTask.inForkJoinPool() ? pool.getParallelism() : 2;
+	}
+	
+	/**
+	 * Starts a new pass of the monitor if the loop is an outermost monitored loop
+	 * @param monitor monitor of the current thread or null
+	 * @param n number of iterations
+	 * @return true if the loop is an outermost monitored loop
+	 */
+	private static boolean beginPass(ProgressMonitor monitor, int n) {
+		if (monitor == null) return false;
+		
+		monitor.checkCanceled();
+		if (s_depth.get()[0] > 0) return false;
+		monitor.beginPass(n);
+		return true;
+	}
+	
+	/**
+	 * Executes the task in the given pool. Nested parallel loops are executed in the current worker thread's pool.
+	 * @param pool
+	 * @param task
+	 */
+	private static void invoke(ForkJoinPool pool, ForTask task) {
+		if (ForkJoinTask.inForkJoinPool()) {
+			task.invoke();
+		} else {
+			pool.invoke(task);
 		}
-
-        for (ReductionData<T> rd : redData) {
-        	try { 
-        		rd.future.get();
-        		if (rd.data != null) {
-        			reducer.run(rd.data);
-        		}
-		    } catch (InterruptedException | ExecutionException e) { 
-				e.printStackTrace();
-		    }
-        }
-	    executor.shutdown();     
 	}
 }
-
-
@@ -0,0 +1,190 @@
+package utils;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress and cooperative cancellation of a long running operation.
+ * 
+ * An operation executed by run(...) reports its progress through the parallel loops of utils.Parallel:
+ * each outermost parallel loop is a pass, and each finished iteration of the current pass advances the progress.
+ * After cancel() has been called, the parallel loops of the operation don't start any further iterations 
+ * and throw a CancellationException. Sequential code can poll checkCanceled().
+ * The monitor also sums up the CPU time and the allocated bytes of the worker threads executing the 
+ * operation's parallel loops (see Metrics).
+ * 
+ */
+public class ProgressMonitor {
+	public static interface Listener {
+		/**
+		 * Called in an arbitrary thread when a new pass has started or the progress has changed by at least one percent
+		 * @param pass number of started passes
+		 * @param fraction progress of the current pass in [0, 1]
+		 */
+		void progress(int pass, float fraction);
+	}
+	
+	private static final ThreadLocal<ProgressMonitor> s_current = new ThreadLocal<>();
+	
+	private final Listener m_listener;					// can be null
+	private final AtomicLong m_done = new AtomicLong();	// finished iterations of the current pass
+	private volatile long m_total;						// iterations of the current pass
+	private volatile int m_pass;						// number of started passes
+	private volatile int m_percent;						// last reported progress in percent
+	private volatile boolean m_canceled;
+	private volatile Thread m_thread;					// thread executing the operation
+	private final AtomicLong m_workerCpu = new AtomicLong();	// ns
+	private final AtomicLong m_workerBytes = new AtomicLong();
+	
+	public ProgressMonitor() {
+		this(null);
+	}
+	
+	/**
+	 * @param listener progress listener or null
+	 */
+	public ProgressMonitor(Listener listener) {
+		m_listener = listener;
+	}
+	
+	/**
+	 * Returns the monitor of the operation executed in the current thread
+	 * @return monitor or null
+	 */
+	public static ProgressMonitor current() {
+		return s_current.get();
+	}
+	
+	/**
+	 * Executes an operation in the current thread under the control of this monitor
+	 * @param operation
+	 * @return result of the operation
+	 * @throws CancellationException if the operation has been canceled
+	 * @throws Exception exception thrown by the operation
+	 */
+	public <T> T run(Callable<T> operation) throws Exception {
+		final ProgressMonitor outer = enter(this);
+		final Thread thread = m_thread;
+		
+		m_thread = Thread.currentThread();
+		try {
+			checkCanceled();
+			return operation.call();
+		} finally {
+			m_thread = thread;
+			enter(outer);
+		}
+	}
+	
+	/**
+	 * Requests cancellation. Can be called in any thread.
+	 */
+	public void cancel() {
+		m_canceled = true;
+	}
+	
+	public boolean isCanceled() {
+		return m_canceled;
+	}
+	
+	/**
+	 * Throws a CancellationException if cancellation has been requested
+	 */
+	public void checkCanceled() {
+		if (m_canceled) throw new CancellationException();
+	}
+	
+	/**
+	 * Returns the number of started passes
+	 * @return
+	 */
+	public int getPass() {
+		return m_pass;
+	}
+	
+	/**
+	 * Returns the progress of the current pass
+	 * @return fraction in [0, 1]
+	 */
+	public float getFraction() {
+		final long total = m_total;
+		
+		return (total == 0) ? 0 : Math.min(1, (float)m_done.get()/total);
+	}
+	
+	/**
+	 * Returns the CPU time spent by worker threads in parallel loops of the operation
+	 * @return ns
+	 */
+	public long getWorkerCpuTime() {
+		return m_workerCpu.get();
+	}
+	
+	/**
+	 * Returns the number of bytes allocated by worker threads in parallel loops of the operation
+	 * @return
+	 */
+	public long getWorkerAllocatedBytes() {
+		return m_workerBytes.get();
+	}
+	
+	/**
+	 * Returns true if the current thread is the thread executing the operation
+	 * @return
+	 */
+	boolean isOperationThread() {
+		return Thread.currentThread() == m_thread;
+	}
+	
+	/**
+	 * Adds resources used by a worker thread. Can be called in any thread.
+	 * @param cpuTime ns
+	 * @param bytes allocated bytes
+	 */
+	void addWorkerUsage(long cpuTime, long bytes) {
+		m_workerCpu.addAndGet(cpuTime);
+		m_workerBytes.addAndGet(bytes);
+	}
+	
+	/**
+	 * Sets the monitor of the current thread
+	 * @param monitor new monitor or null
+	 * @return previous monitor or null
+	 */
+	static ProgressMonitor enter(ProgressMonitor monitor) {
+		final ProgressMonitor outer = s_current.get();
+		
+		if (monitor == null) {
+			s_current.remove();
+		} else {
+			s_current.set(monitor);
+		}
+		return outer;
+	}
+	
+	/**
+	 * Starts a new pass. Passes are started sequentially by the thread executing the operation.
+	 * @param total number of iterations
+	 */
+	void beginPass(long total) {
+		m_total = total;
+		m_done.set(0);
+		m_percent = 0;
+		m_pass++;
+		if (m_listener != null) m_listener.progress(m_pass, 0);
+	}
+	
+	/**
+	 * Reports a finished iteration of the current pass. Can be called in any thread.
+	 */
+	void worked() {
+		final long total = m_total;
+		final int percent = (total == 0) ? 100 : (int)Math.min(100, m_done.incrementAndGet()*100/total);
+		
+		if (percent != m_percent) {
+			m_percent = percent;
+			if (m_listener != null) m_listener.progress(m_pass, percent/100f);
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package utils;
+
+import org.eclipse.swt.graphics.ImageData;
+
+/**
+ * Direct-access raster view over the pixel data of an ImageData object.
+ * The view doesn't copy the pixel data: m_data is ImageData.data and m_stride is ImageData.bytesPerLine.
+ * Inner loops should compute the row offset once per row and then index m_data directly:
+ * <pre>
+ * final int row = raster.row(v);
+ * for (int u = 0; u < raster.m_width; u++) ... raster.m_data[row + u] ...
+ * </pre>
+ * Writing pixels of different rows in parallel is safe. Writing pixels of the same row in parallel is only 
+ * safe for rasters with at least one byte per pixel.
+ * 
+ */
+public abstract class Raster {
+	public final byte[] m_data;				// pixel data of the wrapped image (not a copy)
+	public final int m_width, m_height;		// image size
+	public final int m_stride;				// number of bytes per row (including padding)
+	
+	/**
+	 * @param imageData wrapped image
+	 * @param depth required bit depth
+	 */
+	protected Raster(ImageData imageData, int depth) {
+		if (imageData.depth != depth) {
+			throw new IllegalArgumentException(getClass().getSimpleName() + " requires a depth of " + depth + " bits, but image has " + imageData.depth + " bits");
+		}
+		m_data = imageData.data;
+		m_width = imageData.width;
+		m_height = imageData.height;
+		m_stride = imageData.bytesPerLine;
+	}
+	
+	/**
+	 * Returns the index of the first byte of row v in m_data
+	 * @param v row
+	 * @return
+	 */
+	public final int row(int v) {
+		return v*m_stride;
+	}
+}
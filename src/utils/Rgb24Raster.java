@@ -0,0 +1,123 @@
+package utils;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
+
+/**
+ * Raster view of 24 bit images with direct palette: three bytes per pixel.
+ * Packed pixel values are most significant byte first (same as ImageData.getPixel).
+ * The byte offsets of the color channels within a pixel are derived from the palette masks.
+ * 
+ */
+public final class Rgb24Raster extends Raster {
+	public final int m_r, m_g, m_b;	// byte offsets of red, green, and blue within a pixel
+	
+	public Rgb24Raster(ImageData imageData) {
+		super(imageData, 24);
+		
+		final PaletteData palette = imageData.palette;
+		if (!palette.isDirect) throw new IllegalArgumentException("Rgb24Raster requires a direct palette");
+		m_r = channelOffset(palette.redMask);
+		m_g = channelOffset(palette.greenMask);
+		m_b = channelOffset(palette.blueMask);
+	}
+	
+	private static int channelOffset(int mask) {
+		switch(mask) {
+		case 0xFF0000: return 0;
+		case 0x00FF00: return 1;
+		case 0x0000FF: return 2;
+		default: throw new IllegalArgumentException("Rgb24Raster requires byte aligned color masks");
+		}
+	}
+	
+	/**
+	 * Returns index of the first byte of pixel (u,v) in m_data
+	 * @param u column
+	 * @param v row
+	 * @return
+	 */
+	public int index(int u, int v) {
+		return v*m_stride + 3*u;
+	}
+	
+	/**
+	 * Returns packed pixel value
+	 * @param u column
+	 * @param v row
+	 * @return
+	 */
+	public int get(int u, int v) {
+		final int i = v*m_stride + 3*u;
+		
+		return ((m_data[i] & 0xFF) << 16) | ((m_data[i + 1] & 0xFF) << 8) | (m_data[i + 2] & 0xFF);
+	}
+	
+	/**
+	 * Sets packed pixel value (only the lowest 24 bits are used)
+	 * @param u column
+	 * @param v row
+	 * @param value
+	 */
+	public void set(int u, int v, int value) {
+		final int i = v*m_stride + 3*u;
+		
+		m_data[i]     = (byte)(value >>> 16);
+		m_data[i + 1] = (byte)(value >>> 8);
+		m_data[i + 2] = (byte)value;
+	}
+	
+	public int red(int u, int v) {
+		return m_data[v*m_stride + 3*u + m_r] & 0xFF;
+	}
+	
+	public int green(int u, int v) {
+		return m_data[v*m_stride + 3*u + m_g] & 0xFF;
+	}
+	
+	public int blue(int u, int v) {
+		return m_data[v*m_stride + 3*u + m_b] & 0xFF;
+	}
+	
+	/**
+	 * Sets the color channels of pixel (u,v)
+	 * @param u column
+	 * @param v row
+	 * @param r red in range [0, 255]
+	 * @param g green in range [0, 255]
+	 * @param b blue in range [0, 255]
+	 */
+	public void setRGB(int u, int v, int r, int g, int b) {
+		final int i = v*m_stride + 3*u;
+		
+		m_data[i + m_r] = (byte)r;
+		m_data[i + m_g] = (byte)g;
+		m_data[i + m_b] = (byte)b;
+	}
+	
+	/**
+	 * Copies the packed pixel values of row v to values
+	 * @param v row
+	 * @param values array of at least m_width elements
+	 */
+	public void getRow(int v, int[] values) {
+		for (int u = 0, i = v*m_stride; u < m_width; u++, i += 3) {
+			values[u] = ((m_data[i] & 0xFF) << 16) | ((m_data[i + 1] & 0xFF) << 8) | (m_data[i + 2] & 0xFF);
+		}
+	}
+	
+	/**
+	 * Copies packed pixel values to row v
+	 * @param v row
+	 * @param values array of at least m_width elements
+	 */
+	public void setRow(int v, int[] values) {
+		for (int u = 0, i = v*m_stride; u < m_width; u++, i += 3) {
+			final int value = values[u];
+			
+			m_data[i]     = (byte)(value >>> 16);
+			m_data[i + 1] = (byte)(value >>> 8);
+			m_data[i + 2] = (byte)value;
+		}
+	}
+}
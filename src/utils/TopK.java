@@ -0,0 +1,221 @@
+package utils;
+
+/**
+ * Space bounded top-k selection of primitive scores with int payloads (e.g. pixel positions or indices).
+ * Keeps the capacity elements with the largest scores in a min heap stored in two arrays, hence adding
+ * elements creates no objects. The element with the largest score is tracked on insertion and is available in O(1).
+ * Of equal scores the element with the smaller payload ranks higher, so the selection does not depend on the
+ * order of insertion, e.g. on the scheduling of parallel workers. NaN scores are ignored.
+ * 
+ * Heaps filled by different threads are merged with addAll, see collect.
+ */
+public class TopK {
+	private final double[] m_scores;	// min heap of scores
+	private final int[] m_payloads;		// payloads of the scores
+	private int m_size;					// number of elements
+	private double m_maxScore;			// largest score
+	private int m_maxPayload;			// payload of the largest score
+
+	/**
+	 * Creates an empty heap for a maximum of capacity elements
+	 * @param capacity >= 0
+	 */
+	public TopK(int capacity) {
+		m_scores = new double[capacity];
+		m_payloads = new int[capacity];
+	}
+
+	/**
+	 * Parallel for with one heap per worker: executes the loopBody for each int value in the semi-open range
+	 * [start, stop) and merges the per-thread heaps
+	 * @param start
+	 * @param stop
+	 * @param capacity capacity of the heaps
+	 * @param loopBody adds elements to the heap of its thread
+	 * @return merged heap
+	 */
+	public static TopK collect(int start, int stop, int capacity, Parallel.RedLoopBody<TopK> loopBody) {
+		final TopK result = new TopK(capacity);
+
+		if (start < stop) {
+			Parallel.For(start, stop,
+				// creator
+				() -> new TopK(capacity),
+				// loop body
+				loopBody,
+				// reducer
+				result::addAll
+			);
+		}
+		return result;
+	}
+
+	/**
+	 * Adds an element if the heap is not full or if it ranks higher than the element with the lowest rank.
+	 * In the latter case the element with the lowest rank is removed.
+	 * @param score
+	 * @param payload
+	 * @return true if the element has been added
+	 */
+	public boolean add(double score, int payload) {
+		if (m_size < m_scores.length) {
+			if (score != score) return false; // NaN
+
+			// sift up
+			int i = m_size++;
+			while (i > 0) {
+				final int parent = (i - 1)/2;
+
+				if (!less(score, payload, m_scores[parent], m_payloads[parent])) break;
+				m_scores[i] = m_scores[parent];
+				m_payloads[i] = m_payloads[parent];
+				i = parent;
+			}
+			m_scores[i] = score;
+			m_payloads[i] = payload;
+		} else if (m_size > 0 && less(m_scores[0], m_payloads[0], score, payload)) {
+			// replace minimum and sift down
+			int i = 0;
+			while (2*i + 1 < m_size) {
+				int c = 2*i + 1;
+
+				if (c + 1 < m_size && less(m_scores[c + 1], m_payloads[c + 1], m_scores[c], m_payloads[c])) c++;
+				if (!less(m_scores[c], m_payloads[c], score, payload)) break;
+				m_scores[i] = m_scores[c];
+				m_payloads[i] = m_payloads[c];
+				i = c;
+			}
+			m_scores[i] = score;
+			m_payloads[i] = payload;
+		} else {
+			return false;
+		}
+
+		// the removed minimum can only be the maximum if it was the only element
+		if (m_size == 1 || less(m_maxScore, m_maxPayload, score, payload)) {
+			m_maxScore = score;
+			m_maxPayload = payload;
+		}
+		return true;
+	}
+
+	/**
+	 * Adds all elements of another heap, e.g. the heap of another thread
+	 * @param other
+	 */
+	public void addAll(TopK other) {
+		for (int i = 0; i < other.m_size; i++) add(other.m_scores[i], other.m_payloads[i]);
+	}
+
+	/**
+	 * Removes all elements
+	 */
+	public void clear() {
+		m_size = 0;
+	}
+
+	public int capacity() {
+		return m_scores.length;
+	}
+
+	public int size() {
+		return m_size;
+	}
+
+	public boolean isEmpty() {
+		return m_size == 0;
+	}
+
+	public boolean isFull() {
+		return m_size == m_scores.length;
+	}
+
+	/**
+	 * Returns the score of the i-th element in heap order
+	 * @param i 0 <= i < size()
+	 * @return
+	 */
+	public double score(int i) {
+		return m_scores[i];
+	}
+
+	/**
+	 * Returns the payload of the i-th element in heap order
+	 * @param i 0 <= i < size()
+	 * @return
+	 */
+	public int payload(int i) {
+		return m_payloads[i];
+	}
+
+	/**
+	 * Returns the lowest score
+	 * @return lowest score or NaN if the heap is empty
+	 */
+	public double minScore() {
+		return (m_size > 0) ? m_scores[0] : Double.NaN;
+	}
+
+	/**
+	 * Returns the payload of the lowest score
+	 * @return payload or -1 if the heap is empty
+	 */
+	public int minPayload() {
+		return (m_size > 0) ? m_payloads[0] : -1;
+	}
+
+	/**
+	 * Returns the largest score
+	 * @return largest score or NaN if the heap is empty
+	 */
+	public double maxScore() {
+		return (m_size > 0) ? m_maxScore : Double.NaN;
+	}
+
+	/**
+	 * Returns the payload of the largest score
+	 * @return payload or -1 if the heap is empty
+	 */
+	public int maxPayload() {
+		return (m_size > 0) ? m_maxPayload : -1;
+	}
+
+	/**
+	 * Returns the payloads ordered by descending rank. The heap is not changed.
+	 * @return payloads, the first has the largest score
+	 */
+	public int[] sortedPayloads() {
+		final double[] scores = m_scores.clone();
+		final int[] payloads = m_payloads.clone();
+		final int[] result = new int[m_size];
+
+		// heap sort: repeatedly move the minimum to the end of the result
+		for (int n = m_size; n > 0; n--) {
+			result[n - 1] = payloads[0];
+
+			final double s = scores[n - 1];
+			final int p = payloads[n - 1];
+			int i = 0;
+
+			while (2*i + 1 < n - 1) {
+				int c = 2*i + 1;
+
+				if (c + 1 < n - 1 && less(scores[c + 1], payloads[c + 1], scores[c], payloads[c])) c++;
+				if (!less(scores[c], payloads[c], s, p)) break;
+				scores[i] = scores[c];
+				payloads[i] = payloads[c];
+				i = c;
+			}
+			scores[i] = s;
+			payloads[i] = p;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns true if element (s1, p1) ranks lower than element (s2, p2)
+	 */
+	private static boolean less(double s1, int p1, double s2, int p2) {
+		return s1 < s2 || (s1 == s2 && p1 > p2);
+	}
+}